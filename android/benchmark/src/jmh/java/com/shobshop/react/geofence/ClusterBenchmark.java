@@ -0,0 +1,48 @@
+package com.shobshop.react.geofence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clustering a mall-sized batch of fences, as done by addGeofences with a clusterRadius.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClusterBenchmark {
+    private List<GeofenceRecord> mRecords;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        // 300 stores within about 2 km.
+        mRecords = new ArrayList<>(300);
+        for (int i = 0; i < 300; i++) {
+            mRecords.add(new GeofenceRecord("store-" + i,
+                    13.74 + random.nextDouble() * 0.02,
+                    100.53 + random.nextDouble() * 0.02,
+                    20 + random.nextInt(40)));
+        }
+    }
+
+    @Benchmark
+    public List<GeofenceRecord> cluster() {
+        return GeofenceClusterer.cluster(mRecords, 300);
+    }
+}
@@ -0,0 +1,73 @@
+package com.shobshop.react.geofence;
+
+import com.facebook.react.bridge.JavaOnlyMap;
+import com.facebook.react.bridge.ReadableMap;
+import com.google.android.gms.location.Geofence;
+import com.google.android.gms.location.GeofencingRequest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-registration work: parsing configs sent from JS and turning records into the
+ * Geofence objects and request handed to Play Services.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistrationBenchmark {
+    @Param({"1", "100"})
+    public int count;
+
+    private ReadableMap[] mConfigs;
+    private List<GeofenceRecord> mRecords;
+
+    @Setup
+    public void setUp() {
+        mConfigs = new ReadableMap[count];
+        mRecords = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            mConfigs[i] = JavaOnlyMap.of(
+                    "identifier", "fence-" + i,
+                    "latitude", 13.7 + i * 0.001,
+                    "longitude", 100.5 + i * 0.001,
+                    "radius", 150.0);
+            mRecords.add(RNGeofenceModule.createGeofenceRecord(mConfigs[i]));
+        }
+    }
+
+    @Benchmark
+    public List<GeofenceRecord> parseConfigs() {
+        ArrayList<GeofenceRecord> records = new ArrayList<>(count);
+        for (ReadableMap config : mConfigs) {
+            records.add(RNGeofenceModule.createGeofenceRecord(config));
+        }
+        return records;
+    }
+
+    @Benchmark
+    public List<Geofence> createGeofences() {
+        return RNGeofenceModule.createGeofences(mRecords);
+    }
+
+    @Benchmark
+    public GeofencingRequest createRequest() {
+        return RNGeofenceModule.getGeofencingRequest(RNGeofenceModule.createGeofences(mRecords));
+    }
+}
@@ -0,0 +1,92 @@
+package com.shobshop.react.geofence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Geometry kernel: the containment check run on every shape transition, and building
+ * a shape with its covering circles when it is added. contains() should show no
+ * allocations under -prof gc.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShapeBenchmark {
+    private static final int QUERY_POINTS = 1024;
+
+    @Param({"100", "5000"})
+    public int vertices;
+
+    private double[] mPolygonLatitudes;
+    private double[] mPolygonLongitudes;
+    private GeofenceShape mPolygon;
+    private GeofenceShape mCorridor;
+    private double[] mQueryLatitudes;
+    private double[] mQueryLongitudes;
+    private int mQuery;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        // A roughly round zone about 4 km across with a ragged edge.
+        mPolygonLatitudes = new double[vertices];
+        mPolygonLongitudes = new double[vertices];
+        for (int i = 0; i < vertices; i++) {
+            double angle = 2 * Math.PI * i / vertices;
+            double radius = 0.02 * (0.9 + 0.1 * random.nextDouble());
+            mPolygonLatitudes[i] = 13.7 + radius * Math.sin(angle);
+            mPolygonLongitudes[i] = 100.5 + radius * Math.cos(angle);
+        }
+        mPolygon = GeofenceShape.polygon(mPolygonLatitudes, mPolygonLongitudes, 0);
+
+        // A winding route of the same vertex count, 50 m either side.
+        double[] pathLatitudes = new double[vertices];
+        double[] pathLongitudes = new double[vertices];
+        for (int i = 0; i < vertices; i++) {
+            double t = (double) i / vertices;
+            pathLatitudes[i] = 13.68 + 0.04 * t;
+            pathLongitudes[i] = 100.48 + 0.01 * Math.sin(t * 6 * Math.PI);
+        }
+        mCorridor = GeofenceShape.corridor(pathLatitudes, pathLongitudes, 50, 0);
+
+        mQueryLatitudes = new double[QUERY_POINTS];
+        mQueryLongitudes = new double[QUERY_POINTS];
+        for (int i = 0; i < QUERY_POINTS; i++) {
+            mQueryLatitudes[i] = 13.67 + random.nextDouble() * 0.06;
+            mQueryLongitudes[i] = 100.47 + random.nextDouble() * 0.06;
+        }
+    }
+
+    @Benchmark
+    public boolean polygonContains() {
+        int query = mQuery++ & (QUERY_POINTS - 1);
+        return mPolygon.contains(mQueryLatitudes[query], mQueryLongitudes[query]);
+    }
+
+    @Benchmark
+    public boolean corridorContains() {
+        int query = mQuery++ & (QUERY_POINTS - 1);
+        return mCorridor.contains(mQueryLatitudes[query], mQueryLongitudes[query]);
+    }
+
+    @Benchmark
+    public GeofenceRecord createPolygonRecord() {
+        return GeofenceRecord.createShape("zone",
+                GeofenceShape.polygon(mPolygonLatitudes, mPolygonLongitudes, 0), GeofenceOptions.DEFAULT);
+    }
+}
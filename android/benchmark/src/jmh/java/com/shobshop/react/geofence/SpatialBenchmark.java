@@ -0,0 +1,81 @@
+package com.shobshop.react.geofence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups done when the active set rotates: nearest-fence search and planning the next
+ * active set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpatialBenchmark {
+    // Spread over roughly 50 x 50 km.
+    private static final double SPAN_DEGREES = 0.45;
+    private static final int QUERY_POINTS = 1024;
+
+    @Param({"1000", "50000"})
+    public int fences;
+
+    private GeofenceIndex mIndex;
+    private GeofenceCatalog mCatalog;
+    private double[] mQueryLatitudes;
+    private double[] mQueryLongitudes;
+    private int mQuery;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        ArrayList<GeofenceRecord> records = new ArrayList<>(fences);
+        for (int i = 0; i < fences; i++) {
+            records.add(new GeofenceRecord("fence-" + i,
+                    13.5 + random.nextDouble() * SPAN_DEGREES,
+                    100.3 + random.nextDouble() * SPAN_DEGREES,
+                    50 + random.nextInt(250)));
+        }
+        mIndex = new GeofenceIndex();
+        for (GeofenceRecord record : records) {
+            mIndex.put(record);
+        }
+        mCatalog = new GeofenceCatalog(GeofenceCatalog.MAX_REGISTERED_GEOFENCES);
+        mCatalog.putAll(records);
+
+        mQueryLatitudes = new double[QUERY_POINTS];
+        mQueryLongitudes = new double[QUERY_POINTS];
+        for (int i = 0; i < QUERY_POINTS; i++) {
+            mQueryLatitudes[i] = 13.5 + random.nextDouble() * SPAN_DEGREES;
+            mQueryLongitudes[i] = 100.3 + random.nextDouble() * SPAN_DEGREES;
+        }
+    }
+
+    @Benchmark
+    public List<GeofenceRecord> nearest() {
+        int query = mQuery++ & (QUERY_POINTS - 1);
+        return mIndex.nearest(mQueryLatitudes[query], mQueryLongitudes[query],
+                GeofenceCatalog.MAX_REGISTERED_GEOFENCES - 1);
+    }
+
+    @Benchmark
+    public ActiveSetPlan plan() {
+        int query = mQuery++ & (QUERY_POINTS - 1);
+        return mCatalog.plan(mQueryLatitudes[query], mQueryLongitudes[query]);
+    }
+}
@@ -0,0 +1,73 @@
+package com.shobshop.react.geofence;
+
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-transition work between the IntentService and the JS event: building payloads,
+ * batching and recording metrics.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransitionBenchmark {
+    private static final int BATCH_SIZE = 50;
+
+    private GeofenceTransition mTransition;
+    private List<GeofenceTransition> mBatch;
+    private final TransitionBatcher mBatcher = new TransitionBatcher();
+    private final LatencyHistogram mHistogram = new LatencyHistogram();
+    private long mLatency;
+
+    @Setup
+    public void setUp() {
+        // A full payload: location, accuracy, speed, fix time and distance.
+        mTransition = new GeofenceTransition("fence-1", GeofenceTransition.ENTER, System.currentTimeMillis(),
+                13.7466, 100.5347, 12.5f, 1.4f, System.currentTimeMillis() - 800, 87.3f);
+        mBatch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            // Every fifth fence flaps, so the batcher has pairs to cancel.
+            mBatch.add(new GeofenceTransition("fence-" + (i % 5 == 4 ? i - 1 : i),
+                    i % 5 == 4 ? GeofenceTransition.EXIT : GeofenceTransition.ENTER));
+        }
+    }
+
+    @Benchmark
+    public WritableMap createTransitionEvent() {
+        return RNGeofencePackage.createTransitionEvent(mTransition);
+    }
+
+    @Benchmark
+    public WritableArray createTransitionArray() {
+        return RNGeofencePackage.createTransitionArray(mBatch);
+    }
+
+    @Benchmark
+    public List<GeofenceTransition> batchAndDrain() {
+        mBatcher.addAll(mBatch);
+        return mBatcher.drain();
+    }
+
+    @Benchmark
+    public void recordLatency() {
+        mHistogram.record(mLatency++ & 0xffff);
+    }
+}
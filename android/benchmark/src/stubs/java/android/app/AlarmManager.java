@@ -0,0 +1,18 @@
+package android.app;
+
+public class AlarmManager {
+    public static final int RTC_WAKEUP = 0;
+    public static final int ELAPSED_REALTIME_WAKEUP = 2;
+
+    public void set(int type, long triggerAtMillis, PendingIntent operation) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void setAndAllowWhileIdle(int type, long triggerAtMillis, PendingIntent operation) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void cancel(PendingIntent operation) {
+        throw new UnsupportedOperationException();
+    }
+}
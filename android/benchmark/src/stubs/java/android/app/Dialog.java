@@ -0,0 +1,7 @@
+package android.app;
+
+public class Dialog {
+    public void show() {
+        throw new UnsupportedOperationException();
+    }
+}
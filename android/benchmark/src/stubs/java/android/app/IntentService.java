@@ -0,0 +1,10 @@
+package android.app;
+
+import android.content.Intent;
+
+public abstract class IntentService extends Service {
+    public IntentService(String name) {
+    }
+
+    protected abstract void onHandleIntent(Intent intent);
+}
@@ -0,0 +1,8 @@
+package android.app;
+
+import android.content.ContextWrapper;
+
+public abstract class Service extends ContextWrapper {
+    public void onCreate() {
+    }
+}
@@ -0,0 +1,36 @@
+package android.content;
+
+import java.io.File;
+
+public class Context {
+    public static final String LOCATION_SERVICE = "location";
+    public static final String ALARM_SERVICE = "alarm";
+    public static final int MODE_PRIVATE = 0;
+
+    private final File mFilesDir = new File(System.getProperty("java.io.tmpdir"), "rngeofence-benchmark");
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public File getFilesDir() {
+        mFilesDir.mkdirs();
+        return mFilesDir;
+    }
+
+    public Object getSystemService(String name) {
+        throw new UnsupportedOperationException();
+    }
+
+    public ContentResolver getContentResolver() {
+        throw new UnsupportedOperationException();
+    }
+
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        throw new UnsupportedOperationException();
+    }
+
+    public ComponentName startService(Intent service) {
+        throw new UnsupportedOperationException();
+    }
+}
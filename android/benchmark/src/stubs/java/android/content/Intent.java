@@ -0,0 +1,42 @@
+package android.content;
+
+public class Intent {
+    private String mAction;
+    private final java.util.HashMap<String, Object> mExtras = new java.util.HashMap<>();
+
+    public Intent(Context context, Class<?> cls) {
+    }
+
+    public Intent(String action) {
+        mAction = action;
+    }
+
+    public String getAction() {
+        return mAction;
+    }
+
+    public Intent setAction(String action) {
+        mAction = action;
+        return this;
+    }
+
+    public Intent putExtra(String name, boolean value) {
+        mExtras.put(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, int value) {
+        mExtras.put(name, value);
+        return this;
+    }
+
+    public int getIntExtra(String name, int defaultValue) {
+        Object value = mExtras.get(name);
+        return value != null ? (Integer) value : defaultValue;
+    }
+
+    public boolean getBooleanExtra(String name, boolean defaultValue) {
+        Object value = mExtras.get(name);
+        return value != null ? (Boolean) value : defaultValue;
+    }
+}
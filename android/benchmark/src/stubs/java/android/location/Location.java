@@ -0,0 +1,60 @@
+package android.location;
+
+public class Location {
+    private double mLatitude;
+    private double mLongitude;
+    private long mTime;
+    private float mAccuracy;
+    private float mSpeed;
+
+    public Location(String provider) {
+    }
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    public void setLatitude(double latitude) {
+        mLatitude = latitude;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    public void setLongitude(double longitude) {
+        mLongitude = longitude;
+    }
+
+    public long getTime() {
+        return mTime;
+    }
+
+    public void setTime(long time) {
+        mTime = time;
+    }
+
+    public boolean hasAccuracy() {
+        return mAccuracy != 0;
+    }
+
+    public float getAccuracy() {
+        return mAccuracy;
+    }
+
+    public void setAccuracy(float accuracy) {
+        mAccuracy = accuracy;
+    }
+
+    public boolean hasSpeed() {
+        return mSpeed != 0;
+    }
+
+    public float getSpeed() {
+        return mSpeed;
+    }
+
+    public void setSpeed(float speed) {
+        mSpeed = speed;
+    }
+}
@@ -0,0 +1,10 @@
+package android.location;
+
+public class LocationManager {
+    public static final String GPS_PROVIDER = "gps";
+    public static final String NETWORK_PROVIDER = "network";
+
+    public boolean isProviderEnabled(String provider) {
+        return false;
+    }
+}
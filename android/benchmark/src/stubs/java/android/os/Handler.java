@@ -0,0 +1,10 @@
+package android.os;
+
+public class Handler {
+    public Handler(Looper looper) {
+    }
+
+    public boolean postDelayed(Runnable r, long delayMillis) {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,25 @@
+package android.provider;
+
+import android.content.ContentResolver;
+
+public final class Settings {
+    public static final String ACTION_LOCATION_SOURCE_SETTINGS = "android.settings.LOCATION_SOURCE_SETTINGS";
+
+    public static class SettingNotFoundException extends Exception {
+    }
+
+    public static final class Secure {
+        public static final String LOCATION_MODE = "location_mode";
+        public static final String LOCATION_PROVIDERS_ALLOWED = "location_providers_allowed";
+        public static final int LOCATION_MODE_OFF = 0;
+        public static final int LOCATION_MODE_SENSORS_ONLY = 1;
+
+        public static int getInt(ContentResolver cr, String name) throws SettingNotFoundException {
+            throw new SettingNotFoundException();
+        }
+
+        public static String getString(ContentResolver cr, String name) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,5 @@
+package com.facebook.react;
+
+public interface ReactApplication {
+    ReactNativeHost getReactNativeHost();
+}
@@ -0,0 +1,19 @@
+package com.facebook.react;
+
+import com.facebook.react.bridge.ReactContext;
+
+public abstract class ReactInstanceManager {
+    public interface ReactInstanceEventListener {
+        void onReactContextInitialized(ReactContext context);
+    }
+
+    public abstract ReactContext getCurrentReactContext();
+
+    public abstract void addReactInstanceEventListener(ReactInstanceEventListener listener);
+
+    public abstract void removeReactInstanceEventListener(ReactInstanceEventListener listener);
+
+    public abstract boolean hasStartedCreatingInitialContext();
+
+    public abstract void createReactContextInBackground();
+}
@@ -0,0 +1,5 @@
+package com.facebook.react;
+
+public abstract class ReactNativeHost {
+    public abstract ReactInstanceManager getReactInstanceManager();
+}
@@ -0,0 +1,13 @@
+package com.facebook.react.bridge;
+
+// React Native backs these with native maps; the Java-only ones cost about the same on
+// the Java side, which is what the benchmarks measure.
+public class Arguments {
+    public static WritableMap createMap() {
+        return new JavaOnlyMap();
+    }
+
+    public static WritableArray createArray() {
+        return new JavaOnlyArray();
+    }
+}
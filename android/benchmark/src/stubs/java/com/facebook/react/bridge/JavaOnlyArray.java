@@ -0,0 +1,60 @@
+package com.facebook.react.bridge;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class JavaOnlyArray implements WritableArray {
+    private final ArrayList<Object> mBackingList;
+
+    public JavaOnlyArray() {
+        mBackingList = new ArrayList<>();
+    }
+
+    private JavaOnlyArray(Object... values) {
+        mBackingList = new ArrayList<>(Arrays.asList(values));
+    }
+
+    public static JavaOnlyArray of(Object... values) {
+        return new JavaOnlyArray(values);
+    }
+
+    @Override
+    public int size() {
+        return mBackingList.size();
+    }
+
+    @Override
+    public double getDouble(int index) {
+        return ((Number) mBackingList.get(index)).doubleValue();
+    }
+
+    @Override
+    public String getString(int index) {
+        return (String) mBackingList.get(index);
+    }
+
+    @Override
+    public ReadableArray getArray(int index) {
+        return (ReadableArray) mBackingList.get(index);
+    }
+
+    @Override
+    public ReadableMap getMap(int index) {
+        return (ReadableMap) mBackingList.get(index);
+    }
+
+    @Override
+    public void pushDouble(double value) {
+        mBackingList.add(value);
+    }
+
+    @Override
+    public void pushString(String value) {
+        mBackingList.add(value);
+    }
+
+    @Override
+    public void pushMap(WritableMap map) {
+        mBackingList.add(map);
+    }
+}
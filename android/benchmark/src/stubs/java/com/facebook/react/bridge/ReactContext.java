@@ -0,0 +1,13 @@
+package com.facebook.react.bridge;
+
+import android.content.Context;
+
+public class ReactContext extends Context {
+    public <T extends JavaScriptModule> T getJSModule(Class<T> jsInterface) {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean hasActiveCatalystInstance() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,18 @@
+package com.facebook.react.bridge;
+
+import android.app.Activity;
+
+import java.util.Map;
+
+public abstract class ReactContextBaseJavaModule implements NativeModule {
+    public ReactContextBaseJavaModule(ReactApplicationContext reactContext) {
+    }
+
+    public Map<String, Object> getConstants() {
+        return null;
+    }
+
+    protected final Activity getCurrentActivity() {
+        return null;
+    }
+}
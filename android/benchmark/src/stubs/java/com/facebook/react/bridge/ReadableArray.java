@@ -0,0 +1,13 @@
+package com.facebook.react.bridge;
+
+public interface ReadableArray {
+    int size();
+
+    double getDouble(int index);
+
+    String getString(int index);
+
+    ReadableArray getArray(int index);
+
+    ReadableMap getMap(int index);
+}
@@ -0,0 +1,7 @@
+package com.facebook.react.bridge;
+
+public class UiThreadUtil {
+    public static void runOnUiThread(Runnable runnable) {
+        throw new UnsupportedOperationException();
+    }
+}
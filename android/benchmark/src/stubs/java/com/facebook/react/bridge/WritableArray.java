@@ -0,0 +1,9 @@
+package com.facebook.react.bridge;
+
+public interface WritableArray extends ReadableArray {
+    void pushDouble(double value);
+
+    void pushString(String value);
+
+    void pushMap(WritableMap map);
+}
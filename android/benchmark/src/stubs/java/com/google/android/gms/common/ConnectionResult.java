@@ -0,0 +1,5 @@
+package com.google.android.gms.common;
+
+public class ConnectionResult {
+    public static final int SUCCESS = 0;
+}
@@ -0,0 +1,23 @@
+package com.google.android.gms.common;
+
+import android.app.Activity;
+import android.app.Dialog;
+import android.content.Context;
+
+public class GoogleApiAvailability {
+    public static GoogleApiAvailability getInstance() {
+        return new GoogleApiAvailability();
+    }
+
+    public int isGooglePlayServicesAvailable(Context context) {
+        return ConnectionResult.SUCCESS;
+    }
+
+    public boolean isUserResolvableError(int errorCode) {
+        return false;
+    }
+
+    public Dialog getErrorDialog(Activity activity, int errorCode, int requestCode) {
+        throw new UnsupportedOperationException();
+    }
+}
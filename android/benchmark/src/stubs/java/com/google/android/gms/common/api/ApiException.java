@@ -0,0 +1,13 @@
+package com.google.android.gms.common.api;
+
+public class ApiException extends Exception {
+    private final int mStatusCode;
+
+    public ApiException(int statusCode) {
+        mStatusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+}
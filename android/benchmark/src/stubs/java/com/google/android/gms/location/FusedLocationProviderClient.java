@@ -0,0 +1,11 @@
+package com.google.android.gms.location;
+
+import android.location.Location;
+
+import com.google.android.gms.tasks.Task;
+
+public class FusedLocationProviderClient {
+    public Task<Location> getLastLocation() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,61 @@
+package com.google.android.gms.location;
+
+public interface Geofence {
+    int GEOFENCE_TRANSITION_ENTER = 1;
+    int GEOFENCE_TRANSITION_EXIT = 2;
+    int GEOFENCE_TRANSITION_DWELL = 4;
+    long NEVER_EXPIRE = -1L;
+
+    String getRequestId();
+
+    // Holds the same fields as the Play Services builder, so building costs what our
+    // side of the conversion costs.
+    final class Builder {
+        private String mRequestId;
+        private double mLatitude;
+        private double mLongitude;
+        private float mRadius;
+        private long mExpirationDuration;
+        private int mTransitionTypes;
+        private int mLoiteringDelay;
+        private int mNotificationResponsiveness;
+
+        public Builder setRequestId(String requestId) {
+            mRequestId = requestId;
+            return this;
+        }
+
+        public Builder setCircularRegion(double latitude, double longitude, float radius) {
+            mLatitude = latitude;
+            mLongitude = longitude;
+            mRadius = radius;
+            return this;
+        }
+
+        public Builder setExpirationDuration(long durationMillis) {
+            mExpirationDuration = durationMillis;
+            return this;
+        }
+
+        public Builder setTransitionTypes(int transitionTypes) {
+            mTransitionTypes = transitionTypes;
+            return this;
+        }
+
+        public Builder setLoiteringDelay(int loiteringDelayMs) {
+            mLoiteringDelay = loiteringDelayMs;
+            return this;
+        }
+
+        public Builder setNotificationResponsiveness(int notificationResponsivenessMs) {
+            mNotificationResponsiveness = notificationResponsivenessMs;
+            return this;
+        }
+
+        public Geofence build() {
+            if (mRequestId == null) throw new IllegalArgumentException("Request ID not set.");
+            return new ParcelableGeofence(mRequestId, mLatitude, mLongitude, mRadius, mExpirationDuration,
+                    mTransitionTypes, mLoiteringDelay, mNotificationResponsiveness);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.google.android.gms.location;
+
+import android.app.PendingIntent;
+
+import com.google.android.gms.tasks.Task;
+
+import java.util.List;
+
+public class GeofencingClient {
+    public Task<Void> addGeofences(GeofencingRequest request, PendingIntent pendingIntent) {
+        throw new UnsupportedOperationException();
+    }
+
+    public Task<Void> removeGeofences(List<String> requestIds) {
+        throw new UnsupportedOperationException();
+    }
+
+    public Task<Void> removeGeofences(PendingIntent pendingIntent) {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,32 @@
+package com.google.android.gms.location;
+
+import android.content.Intent;
+import android.location.Location;
+
+import java.util.List;
+
+public class GeofencingEvent {
+    public static GeofencingEvent fromIntent(Intent intent) {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean hasError() {
+        return false;
+    }
+
+    public int getErrorCode() {
+        return 0;
+    }
+
+    public int getGeofenceTransition() {
+        return 0;
+    }
+
+    public List<Geofence> getTriggeringGeofences() {
+        return null;
+    }
+
+    public Location getTriggeringLocation() {
+        return null;
+    }
+}
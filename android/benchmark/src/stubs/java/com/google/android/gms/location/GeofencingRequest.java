@@ -0,0 +1,45 @@
+package com.google.android.gms.location;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class GeofencingRequest {
+    public static final int INITIAL_TRIGGER_ENTER = 1;
+    public static final int INITIAL_TRIGGER_EXIT = 2;
+    public static final int INITIAL_TRIGGER_DWELL = 4;
+
+    private final List<Geofence> mGeofences;
+    private final int mInitialTrigger;
+
+    private GeofencingRequest(List<Geofence> geofences, int initialTrigger) {
+        mGeofences = geofences;
+        mInitialTrigger = initialTrigger;
+    }
+
+    public List<Geofence> getGeofences() {
+        return mGeofences;
+    }
+
+    public int getInitialTrigger() {
+        return mInitialTrigger;
+    }
+
+    public static final class Builder {
+        private final List<Geofence> mGeofences = new ArrayList<>();
+        private int mInitialTrigger;
+
+        public Builder setInitialTrigger(int initialTrigger) {
+            mInitialTrigger = initialTrigger;
+            return this;
+        }
+
+        public Builder addGeofences(List<Geofence> geofences) {
+            mGeofences.addAll(geofences);
+            return this;
+        }
+
+        public GeofencingRequest build() {
+            return new GeofencingRequest(new ArrayList<>(mGeofences), mInitialTrigger);
+        }
+    }
+}
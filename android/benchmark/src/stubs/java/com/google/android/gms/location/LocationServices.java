@@ -0,0 +1,13 @@
+package com.google.android.gms.location;
+
+import android.content.Context;
+
+public class LocationServices {
+    public static GeofencingClient getGeofencingClient(Context context) {
+        return new GeofencingClient();
+    }
+
+    public static FusedLocationProviderClient getFusedLocationProviderClient(Context context) {
+        return new FusedLocationProviderClient();
+    }
+}
@@ -0,0 +1,34 @@
+package com.google.android.gms.location;
+
+final class ParcelableGeofence implements Geofence {
+    private final String mRequestId;
+    private final double mLatitude;
+    private final double mLongitude;
+    private final float mRadius;
+    private final long mExpirationDuration;
+    private final int mTransitionTypes;
+    private final int mLoiteringDelay;
+    private final int mNotificationResponsiveness;
+
+    ParcelableGeofence(String requestId, double latitude, double longitude, float radius, long expirationDuration,
+                       int transitionTypes, int loiteringDelay, int notificationResponsiveness) {
+        mRequestId = requestId;
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mRadius = radius;
+        mExpirationDuration = expirationDuration;
+        mTransitionTypes = transitionTypes;
+        mLoiteringDelay = loiteringDelay;
+        mNotificationResponsiveness = notificationResponsiveness;
+    }
+
+    @Override
+    public String getRequestId() {
+        return mRequestId;
+    }
+
+    @Override
+    public String toString() {
+        return "Geofence[" + mRequestId + " " + mLatitude + "," + mLongitude + " r=" + mRadius + "]";
+    }
+}
@@ -0,0 +1,27 @@
+package com.shobshop.react.geofence;
+
+import java.util.List;
+
+/**
+ * Difference between the fences currently registered with Play Services and the set
+ * that should be registered, produced by {@link GeofenceCatalog#plan(double, double)}.
+ * Both lists are meant to be applied as a single batched remove and a single batched add.
+ */
+public class ActiveSetPlan {
+    public final List<GeofenceRecord> addRecords;
+    public final List<String> removeIds;
+
+    public ActiveSetPlan(List<GeofenceRecord> addRecords, List<String> removeIds) {
+        this.addRecords = addRecords;
+        this.removeIds = removeIds;
+    }
+
+    public boolean isEmpty() {
+        return addRecords.isEmpty() && removeIds.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "ActiveSetPlan{add=" + addRecords.size() + ", remove=" + removeIds.size() + "}";
+    }
+}
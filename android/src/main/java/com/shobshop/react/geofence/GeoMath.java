@@ -0,0 +1,33 @@
+package com.shobshop.react.geofence;
+
+/**
+ * Distance helpers shared by the spatial index and the transition handling code.
+ */
+public final class GeoMath {
+    public static final double EARTH_RADIUS_METERS = 6371008.8;
+    public static final double METERS_PER_DEGREE = EARTH_RADIUS_METERS * Math.PI / 180;
+
+    private GeoMath() {
+    }
+
+    /**
+     * Great-circle (haversine) distance in meters between two coordinates.
+     */
+    public static double distanceMeters(double lat1, double lng1, double lat2, double lng2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLng = Math.toRadians(lng2 - lng1);
+        double sinLat = Math.sin(dLat / 2);
+        double sinLng = Math.sin(dLng / 2);
+        double a = sinLat * sinLat
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinLng * sinLng;
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * Distance in meters from a point to the rim of a circular fence. Negative when the
+     * point is inside the fence.
+     */
+    public static double distanceToRim(double latitude, double longitude, GeofenceRecord record) {
+        return distanceMeters(latitude, longitude, record.latitude, record.longitude) - record.radius;
+    }
+}
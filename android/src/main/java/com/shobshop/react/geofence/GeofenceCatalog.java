@@ -0,0 +1,982 @@
+package com.shobshop.react.geofence;
+
+import android.content.Context;
+import android.location.Location;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Process-wide catalog of every geofence added from JS, which may be far more than the
+ * 100 fences Play Services accepts per app. When the catalog is over that limit only the
+ * fences closest to the device are registered, together with one exit-only boundary fence
+ * around the device. Leaving the boundary makes {@link GeofenceTransitionsIntentService}
+ * ask for a new plan around the triggering location.
+ * <p>
+ * Records may be cluster parents built by {@link GeofenceClusterer}. Only the parent is
+ * registered; the catalog tracks which children the device is in and turns parent
+ * transitions into child transitions. Polygon and corridor records are registered as
+ * their covering circles and tracked the same way, against the shape itself.
+ * <p>
+ * Fences tagged with a group are indexed by it, so that a whole group can be listed,
+ * removed or replaced in one call.
+ * <p>
+ * Fences past their expiration are dropped with the next plan, and so are the fences
+ * beyond the configured maximum, lowest priority first, then least recently triggered,
+ * then soonest to expire. Both orders are kept sorted as fences change, so finding what
+ * to drop does not scan the catalog.
+ * <p>
+ * The instance returned by {@link #getInstance(Context)} is backed by a
+ * {@link GeofenceRegistry}, so every change is persisted before the call returns.
+ * <p>
+ * What changed in which fences exist and which the device is in is published as a
+ * {@link StateChange} after each change, for readers that keep their own copy; a full
+ * {@link State} is only built when asked for, to start that copy from.
+ */
+public class GeofenceCatalog {
+    public static final int MAX_REGISTERED_GEOFENCES = 100;
+    public static final String BOUNDARY_IDENTIFIER = "RNGeofence:BOUNDARY";
+    // Play Services does not work reliably with fences smaller than this.
+    static final float MIN_BOUNDARY_RADIUS = 100;
+    private static final String REGISTRY_FILE_NAME = "RNGeofence.registry";
+
+    private static GeofenceCatalog sInstance;
+    private static volatile StateListener sStateListener;
+
+    private final GeofenceIndex mIndex = new GeofenceIndex();
+    // Identifiers currently registered with Play Services, not counting the boundary.
+    private final HashSet<String> mActiveIds = new HashSet<>();
+    // Active identifiers whose geometry changed since they were registered.
+    private final HashSet<String> mDirtyIds = new HashSet<>();
+    private final HashMap<String, String> mParentByChild = new HashMap<>();
+    // Fences the device is in: cluster children and shapes by the triggering location,
+    // other fences by their last transition.
+    private final HashSet<String> mInsideChildren = new HashSet<>();
+    // Registered identifiers left behind by a shape that was replaced with fewer parts.
+    private final ArrayList<String> mOrphanIds = new ArrayList<>();
+    // Identifiers given by JS, cluster children included, by group.
+    private final HashMap<String, LinkedHashSet<String>> mGroups = new HashMap<>();
+    // Identifiers given by JS, cluster children included, in the order they are evicted in,
+    // and those that expire in the order they expire in.
+    private final HashMap<String, EvictionEntry> mEvictionEntries = new HashMap<>();
+    private final TreeSet<EvictionEntry> mEvictionOrder = new TreeSet<>(EVICTION_ORDER);
+    private final TreeSet<EvictionEntry> mExpiryOrder = new TreeSet<>(EXPIRY_ORDER);
+    private final int mCapacity;
+    // Fences given by JS kept at most; more are evicted by the next plan.
+    private int mMaxFences = Integer.MAX_VALUE;
+    // Play Services fences needed to register the whole catalog.
+    private int mSlotCount;
+    private boolean mBoundaryActive;
+    // Where the last plan was made, used when no fresher location is known.
+    private double mOriginLatitude = Double.NaN;
+    private double mOriginLongitude = Double.NaN;
+
+    private GeofenceRegistry mRegistry;
+    private boolean mActiveChanged;
+    // Changes not published yet, and the number of changes published so far.
+    private StateChange mChange = new StateChange();
+    private long mVersion;
+    // A copy for dry runs, which reports to neither the state listener nor the metrics.
+    private boolean mDetached;
+
+    /**
+     * Identifiers given by JS, cluster children included, and those the device is in, as
+     * of the change with the given version.
+     */
+    public static final class State {
+        public final Set<String> identifiers;
+        public final Set<String> inside;
+        public final long version;
+
+        State(Set<String> identifiers, Set<String> inside, long version) {
+            this.identifiers = identifiers;
+            this.inside = inside;
+            this.version = version;
+        }
+    }
+
+    /**
+     * Identifiers added and removed, and those the device entered and exited. When an
+     * identifier changes more than once, only the last change is kept, so applying a
+     * change to a {@link State} of any version it covers gives the same result. After a
+     * reset the copy starts over from an empty state.
+     */
+    public static final class StateChange {
+        public final LinkedHashSet<String> added = new LinkedHashSet<>();
+        public final LinkedHashSet<String> removed = new LinkedHashSet<>();
+        public final LinkedHashSet<String> entered = new LinkedHashSet<>();
+        public final LinkedHashSet<String> exited = new LinkedHashSet<>();
+        public boolean reset;
+        // Version of the last change this one includes.
+        public long version;
+
+        void add(String identifier) {
+            removed.remove(identifier);
+            added.add(identifier);
+        }
+
+        void remove(String identifier) {
+            added.remove(identifier);
+            removed.add(identifier);
+        }
+
+        void setInside(String identifier, boolean inside) {
+            (inside ? exited : entered).remove(identifier);
+            (inside ? entered : exited).add(identifier);
+        }
+
+        public boolean isEmpty() {
+            return !reset && added.isEmpty() && removed.isEmpty() && entered.isEmpty() && exited.isEmpty();
+        }
+
+        /**
+         * Fold a later change into this one.
+         */
+        public void merge(StateChange later) {
+            if (later.reset) {
+                reset = true;
+                added.clear();
+                removed.clear();
+                entered.clear();
+                exited.clear();
+            }
+            for (String identifier : later.removed) remove(identifier);
+            for (String identifier : later.added) add(identifier);
+            for (String identifier : later.exited) setInside(identifier, false);
+            for (String identifier : later.entered) setInside(identifier, true);
+            version = later.version;
+        }
+    }
+
+    /**
+     * Told about each {@link StateChange} and each fence the catalog dropped by itself,
+     * with the catalog lock held: keep it short.
+     */
+    public interface StateListener {
+        void onStateChanged(StateChange change);
+
+        /**
+         * Fences evicted to stay within the maximum, and fences that expired.
+         */
+        void onEvicted(List<String> evicted, List<String> expired);
+    }
+
+    /**
+     * Place of a fence in the eviction and expiry orders. Replaced rather than changed,
+     * as the sorted sets holding it would not notice.
+     */
+    static final class EvictionEntry {
+        final String identifier;
+        final int priority;
+        // Last transition of the fence, or when it was added if it had none yet.
+        final long triggeredAt;
+        final long expiresAt;
+
+        EvictionEntry(String identifier, int priority, long triggeredAt, long expiresAt) {
+            this.identifier = identifier;
+            this.priority = priority;
+            this.triggeredAt = triggeredAt;
+            this.expiresAt = expiresAt;
+        }
+
+        long expiresAtOrMax() {
+            return expiresAt > 0 ? expiresAt : Long.MAX_VALUE;
+        }
+    }
+
+    // Lowest priority first, then least recently triggered, then soonest to expire.
+    static final Comparator<EvictionEntry> EVICTION_ORDER = new Comparator<EvictionEntry>() {
+        @Override
+        public int compare(EvictionEntry a, EvictionEntry b) {
+            if (a.priority != b.priority) return a.priority < b.priority ? -1 : 1;
+            if (a.triggeredAt != b.triggeredAt) return a.triggeredAt < b.triggeredAt ? -1 : 1;
+            long aExpiresAt = a.expiresAtOrMax();
+            long bExpiresAt = b.expiresAtOrMax();
+            if (aExpiresAt != bExpiresAt) return aExpiresAt < bExpiresAt ? -1 : 1;
+            return a.identifier.compareTo(b.identifier);
+        }
+    };
+
+    static final Comparator<EvictionEntry> EXPIRY_ORDER = new Comparator<EvictionEntry>() {
+        @Override
+        public int compare(EvictionEntry a, EvictionEntry b) {
+            if (a.expiresAt != b.expiresAt) return a.expiresAt < b.expiresAt ? -1 : 1;
+            return a.identifier.compareTo(b.identifier);
+        }
+    };
+
+    public static void setStateListener(@Nullable StateListener listener) {
+        sStateListener = listener;
+    }
+
+    public static synchronized GeofenceCatalog getInstance(Context context) {
+        if (sInstance == null) {
+            GeofenceCatalog catalog = new GeofenceCatalog(MAX_REGISTERED_GEOFENCES);
+            catalog.setMaxFences(new GeofenceSettings(context).getMaxGeofences());
+            File file = new File(context.getApplicationContext().getFilesDir(), REGISTRY_FILE_NAME);
+            catalog.attachRegistry(new GeofenceRegistry(file));
+            sInstance = catalog;
+        }
+        return sInstance;
+    }
+
+    public GeofenceCatalog(int capacity) {
+        mCapacity = capacity;
+    }
+
+    /**
+     * Load the state stored in the registry and persist every further change to it.
+     */
+    public synchronized void attachRegistry(GeofenceRegistry registry) {
+        GeofenceRegistry.Snapshot snapshot = registry.load();
+        clearState();
+        for (GeofenceRecord record : snapshot.records.values()) {
+            mIndex.put(record);
+            mSlotCount += record.slotCount();
+            if (record.isCluster()) {
+                for (GeofenceRecord child : record.children) {
+                    mParentByChild.put(child.identifier, record.identifier);
+                    mChange.add(child.identifier);
+                    setGroup(child.identifier, null, child.group);
+                    setEvictionEntry(child, snapshot.triggeredAt.get(child.identifier));
+                }
+            } else {
+                mChange.add(record.identifier);
+                setGroup(record.identifier, null, record.group);
+                setEvictionEntry(record, snapshot.triggeredAt.get(record.identifier));
+            }
+        }
+        mActiveIds.addAll(snapshot.activeIds);
+        mDirtyIds.addAll(snapshot.dirtyIds);
+        mInsideChildren.addAll(snapshot.insideChildren);
+        for (String identifier : mInsideChildren) mChange.setInside(identifier, true);
+        mBoundaryActive = snapshot.boundaryActive;
+        mOriginLatitude = snapshot.originLatitude;
+        mOriginLongitude = snapshot.originLongitude;
+        mRegistry = registry;
+        publishState();
+    }
+
+    /**
+     * A catalog with the same fences and maximum but nothing registered and nobody inside,
+     * for dry runs such as {@link GeofenceSimulator}. It has no registry and changing it
+     * does not touch this one.
+     */
+    public synchronized GeofenceCatalog copy() {
+        GeofenceCatalog copy = new GeofenceCatalog(mCapacity);
+        copy.mDetached = true;
+        copy.mMaxFences = mMaxFences;
+        copy.putAllInternal(mIndex.values());
+        for (EvictionEntry entry : mEvictionEntries.values()) {
+            copy.setTriggered(entry.identifier, entry.triggeredAt);
+        }
+        copy.publishState();
+        return copy;
+    }
+
+    public synchronized void putAll(Collection<GeofenceRecord> records) {
+        putAllInternal(records);
+        persist();
+    }
+
+    /**
+     * Drop a fence from the catalog. Returns the registered identifiers that should be
+     * removed from Play Services as a result, which for a cluster child is its parent
+     * once the parent has no children left.
+     */
+    public synchronized List<String> remove(String identifier) {
+        ArrayList<String> unregister = new ArrayList<>(1);
+        // Unregister even when the catalog does not think it is active, in case Play Services
+        // still has it from before the catalog existed.
+        removeInternal(identifier, unregister, true);
+        persist();
+        return unregister;
+    }
+
+    /**
+     * Counts of what {@link #sync(List, float)} changed, plus the registered identifiers that
+     * have to be removed from Play Services on top of the next plan and the fences that
+     * were added or changed.
+     */
+    public static class SyncResult {
+        public int added;
+        public int removed;
+        public int changed;
+        public int unchanged;
+        public final ArrayList<String> unregisterIds = new ArrayList<>();
+        public final ArrayList<String> upsertIds = new ArrayList<>();
+
+        @Override
+        public String toString() {
+            return "SyncResult{added=" + added + ", removed=" + removed + ", changed=" + changed
+                    + ", unchanged=" + unchanged + "}";
+        }
+    }
+
+    /**
+     * Make the catalog hold exactly the given fences, comparing by identifier,
+     * geometry, options and group. Fences that are already present unchanged are left alone, so their
+     * registration and state in Play Services survive. Cluster children count as
+     * individual fences; added and changed fences are clustered when
+     * {@code clusterRadius} is positive.
+     */
+    public synchronized SyncResult sync(List<GeofenceRecord> desired, float clusterRadius) {
+        HashMap<String, GeofenceRecord> current = new HashMap<>(mIndex.size() * 2);
+        for (GeofenceRecord record : mIndex.values()) {
+            if (record.isCluster()) {
+                for (GeofenceRecord child : record.children) current.put(child.identifier, child);
+            } else {
+                current.put(record.identifier, record);
+            }
+        }
+        return syncInternal(current, desired, clusterRadius);
+    }
+
+    /**
+     * Like {@link #sync(List, float)}, limited to the fences of one group: fences outside
+     * the group are left alone, and those of the group missing from {@code desired} are
+     * removed. The desired fences are expected to carry the group.
+     */
+    public synchronized SyncResult replaceGroup(String group, List<GeofenceRecord> desired, float clusterRadius) {
+        HashMap<String, GeofenceRecord> current = new HashMap<>();
+        LinkedHashSet<String> identifiers = mGroups.get(group);
+        if (identifiers != null) {
+            for (String identifier : identifiers) current.put(identifier, find(identifier));
+        }
+        return syncInternal(current, desired, clusterRadius);
+    }
+
+    /**
+     * Drop every fence of a group. Returns the registered identifiers to remove from Play
+     * Services as a result.
+     */
+    public synchronized List<String> removeGroup(String group) {
+        ArrayList<String> unregister = new ArrayList<>();
+        LinkedHashSet<String> identifiers = mGroups.get(group);
+        if (identifiers == null) return unregister;
+        for (String identifier : new ArrayList<>(identifiers)) {
+            removeInternal(identifier, unregister, false);
+        }
+        persist();
+        return unregister;
+    }
+
+    public synchronized List<String> listGroup(String group) {
+        LinkedHashSet<String> identifiers = mGroups.get(group);
+        return identifiers != null ? new ArrayList<>(identifiers) : new ArrayList<String>();
+    }
+
+    private SyncResult syncInternal(Map<String, GeofenceRecord> current, List<GeofenceRecord> desired,
+                                    float clusterRadius) {
+        SyncResult result = new SyncResult();
+        ArrayList<GeofenceRecord> upserts = new ArrayList<>();
+        for (GeofenceRecord record : desired) {
+            GeofenceRecord existing = current.remove(record.identifier);
+            if (existing == null) {
+                result.added++;
+                upserts.add(record);
+                result.upsertIds.add(record.identifier);
+            } else if (!existing.isSameFence(record)) {
+                result.changed++;
+                upserts.add(record);
+                result.upsertIds.add(record.identifier);
+            } else {
+                result.unchanged++;
+            }
+        }
+        // Whatever is left was not asked for anymore.
+        for (String identifier : current.keySet()) {
+            result.removed++;
+            removeInternal(identifier, result.unregisterIds, false);
+        }
+        putAllInternal(clusterRadius > 0 ? GeofenceClusterer.cluster(upserts, clusterRadius) : upserts);
+        persist();
+        return result;
+    }
+
+    private void putAllInternal(Collection<GeofenceRecord> records) {
+        long now = System.currentTimeMillis();
+        ArrayList<String> addedIds = new ArrayList<>();
+        for (GeofenceRecord record : records) {
+            record = keepExpiration(record);
+            if (record.isCluster()) {
+                record = withFreeParentId(record);
+                for (GeofenceRecord child : record.children) updateFence(child, now, addedIds);
+            } else {
+                updateFence(record, now, addedIds);
+            }
+            GeofenceRecord previous = mIndex.get(record.identifier);
+            if (record.isCluster()) {
+                for (GeofenceRecord child : record.children) {
+                    detachChild(child.identifier);
+                    // A fence that used to be registered on its own now lives in the
+                    // parent; the next plan unregisters it.
+                    if (indexRemove(child.identifier) != null) {
+                        mActiveChanged |= mDirtyIds.remove(child.identifier);
+                    }
+                    mParentByChild.put(child.identifier, record.identifier);
+                }
+            } else {
+                detachChild(record.identifier);
+            }
+            indexPut(record);
+            if (previous != null && !previous.isSameRegistration(record)
+                    && mActiveIds.contains(record.identifier)) {
+                mActiveChanged |= mDirtyIds.add(record.identifier);
+                List<String> registeredIds = record.registeredIds();
+                for (String identifier : previous.registeredIds()) {
+                    if (!registeredIds.contains(identifier)) mOrphanIds.add(identifier);
+                }
+            }
+        }
+        if (mRegistry != null && !addedIds.isEmpty()) mRegistry.setTriggered(addedIds, now);
+    }
+
+    /**
+     * A fence put again with the same expiration duration keeps the time it expires at,
+     * rather than starting over, for the registration to stay the same. Applies to the
+     * children of a cluster parent.
+     */
+    private GeofenceRecord keepExpiration(GeofenceRecord record) {
+        if (!record.isCluster()) {
+            GeofenceRecord previous = find(record.identifier);
+            if (previous == null || record.options.expirationDuration == 0
+                    || !previous.options.isSameExpiration(record.options)
+                    || previous.options.expiresAt == record.options.expiresAt) {
+                return record;
+            }
+            return record.withOptions(record.options.withExpiresAt(previous.options.expiresAt));
+        }
+        ArrayList<GeofenceRecord> children = new ArrayList<>(record.children.size());
+        boolean changed = false;
+        for (GeofenceRecord child : record.children) {
+            GeofenceRecord kept = keepExpiration(child);
+            changed |= kept != child;
+            children.add(kept);
+        }
+        return changed
+                ? new GeofenceRecord(record.identifier, record.latitude, record.longitude, record.radius, children)
+                : record;
+    }
+
+    /**
+     * The clusterer names a parent after its seed, which may be the name of a parent
+     * already in the catalog. Replacing that parent is only right when the new one takes
+     * over all of its children; otherwise the new parent gets a free identifier and the
+     * old one keeps the children left to it.
+     */
+    private GeofenceRecord withFreeParentId(GeofenceRecord parent) {
+        GeofenceRecord existing = mIndex.get(parent.identifier);
+        if (existing == null || !existing.isCluster()) return parent;
+        HashSet<String> childIds = new HashSet<>(parent.children.size() * 2);
+        for (GeofenceRecord child : parent.children) childIds.add(child.identifier);
+        boolean supersedes = true;
+        for (GeofenceRecord child : existing.children) {
+            if (!childIds.contains(child.identifier)) {
+                supersedes = false;
+                break;
+            }
+        }
+        if (supersedes) return parent;
+
+        String identifier;
+        int suffix = 1;
+        do {
+            identifier = parent.identifier + "#" + suffix++;
+        } while (mIndex.get(identifier) != null);
+        return new GeofenceRecord(identifier, parent.latitude, parent.longitude, parent.radius, parent.children);
+    }
+
+    private void removeInternal(String identifier, List<String> unregister, boolean alwaysUnregister) {
+        GeofenceRecord fence = find(identifier);
+        if (fence != null) {
+            setGroup(identifier, fence.group, null);
+            mChange.remove(identifier);
+        }
+        removeEvictionEntry(identifier);
+        String parentId = mParentByChild.get(identifier);
+        if (parentId != null) {
+            if (detachChild(identifier)) {
+                mActiveChanged |= mActiveIds.remove(parentId);
+                unregister.add(parentId);
+            }
+        } else {
+            GeofenceRecord removed = indexRemove(identifier);
+            mActiveChanged |= mDirtyIds.remove(identifier);
+            boolean wasActive = mActiveIds.remove(identifier);
+            mActiveChanged |= wasActive;
+            if (mInsideChildren.remove(identifier)) {
+                setChildState(identifier, false);
+            }
+            if (wasActive || alwaysUnregister) {
+                unregister.addAll(removed != null ? removed.registeredIds() : Collections.singletonList(identifier));
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        clearState();
+        if (mRegistry != null) {
+            mRegistry.clear();
+        }
+        publishState();
+    }
+
+    /**
+     * A copy of the current state, for a reader to start from before applying the
+     * published changes with a later version. Takes time in the size of the catalog.
+     */
+    public synchronized State getState() {
+        return new State(Collections.unmodifiableSet(new HashSet<>(mEvictionEntries.keySet())),
+                Collections.unmodifiableSet(new HashSet<>(mInsideChildren)), mVersion);
+    }
+
+    public synchronized GeofenceRecord get(String identifier) {
+        return mIndex.get(identifier);
+    }
+
+    /**
+     * Look up a fence by the identifier JS gave it, including fences that are registered
+     * as part of a cluster.
+     */
+    public synchronized GeofenceRecord find(String identifier) {
+        String parentId = mParentByChild.get(identifier);
+        if (parentId == null) return mIndex.get(identifier);
+        GeofenceRecord parent = mIndex.get(parentId);
+        if (parent == null) return null;
+        for (GeofenceRecord child : parent.children) {
+            if (child.identifier.equals(identifier)) return child;
+        }
+        return null;
+    }
+
+    /**
+     * Number of fences the catalog believes are registered with Play Services, the
+     * boundary and every covering circle of a shape included.
+     */
+    public synchronized int registeredCount() {
+        int count = mBoundaryActive ? 1 : 0;
+        for (String identifier : mActiveIds) {
+            GeofenceRecord record = mIndex.get(identifier);
+            count += record != null ? record.slotCount() : 1;
+        }
+        return count;
+    }
+
+    public synchronized int size() {
+        return mIndex.size();
+    }
+
+    public synchronized double getOriginLatitude() {
+        return mOriginLatitude;
+    }
+
+    public synchronized double getOriginLongitude() {
+        return mOriginLongitude;
+    }
+
+    /**
+     * Keep at most this many fences given by JS, cluster children included. Takes effect
+     * with the next plan.
+     */
+    public synchronized void setMaxFences(int maxFences) {
+        mMaxFences = maxFences > 0 ? maxFences : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Whether the catalog holds more fences than can be registered at once, meaning the
+     * active set depends on the device location.
+     */
+    public synchronized boolean needsRotation() {
+        return mSlotCount > mCapacity;
+    }
+
+    /**
+     * Forget what is registered with Play Services, for when the system dropped every
+     * fence (reboot, location turned off). The next plan adds the whole active set.
+     */
+    public synchronized void resetActive() {
+        mActiveIds.clear();
+        mDirtyIds.clear();
+        mBoundaryActive = false;
+        mActiveChanged = true;
+        persist();
+    }
+
+    /**
+     * Have the next plan add every active fence again, to change how they are registered.
+     */
+    public synchronized void markActiveDirty() {
+        mActiveChanged |= mDirtyIds.addAll(mActiveIds);
+        persist();
+    }
+
+    /**
+     * Work out which fences should be registered for a device at the given location and
+     * return the difference with what is registered now, after dropping the fences that
+     * expired or do not fit the maximum. The catalog assumes the plan is applied; call
+     * {@link #markInactive(ActiveSetPlan)} if adding it fails.
+     */
+    public synchronized ActiveSetPlan plan(double latitude, double longitude) {
+        ArrayList<String> removeIds = new ArrayList<>(mOrphanIds);
+        mOrphanIds.clear();
+        evict(System.currentTimeMillis(), removeIds);
+
+        List<GeofenceRecord> selected;
+        GeofenceRecord boundary = null;
+        if (mSlotCount <= mCapacity) {
+            selected = new ArrayList<>(mIndex.values());
+        } else {
+            int slots = mCapacity - 1;
+            // Every record takes at least one slot, so one more than fits is enough.
+            List<GeofenceRecord> nearest = mIndex.nearest(latitude, longitude, slots + 1);
+            int count = 0;
+            for (GeofenceRecord record : nearest) {
+                if (record.slotCount() > slots) break;
+                slots -= record.slotCount();
+                count++;
+            }
+            selected = nearest.subList(0, count);
+            // Reach up to the rim of the closest fence left out, so the device cannot get
+            // into an unregistered fence without leaving the boundary first.
+            double radius = GeoMath.distanceToRim(latitude, longitude, nearest.get(count));
+            boundary = new GeofenceRecord(BOUNDARY_IDENTIFIER, latitude, longitude,
+                    (float) Math.max(MIN_BOUNDARY_RADIUS, radius));
+        }
+
+        HashSet<String> selectedIds = new HashSet<>(selected.size() * 2);
+        ArrayList<GeofenceRecord> addRecords = new ArrayList<>();
+        for (GeofenceRecord record : selected) {
+            selectedIds.add(record.identifier);
+            if (!mActiveIds.contains(record.identifier) || mDirtyIds.contains(record.identifier)) {
+                addRecords.add(record);
+            }
+        }
+        for (String identifier : mActiveIds) {
+            if (!selectedIds.contains(identifier)) {
+                GeofenceRecord record = mIndex.get(identifier);
+                removeIds.addAll(record != null ? record.registeredIds() : Collections.singletonList(identifier));
+            }
+        }
+        if (boundary != null) {
+            // Re-adding under the same identifier replaces the previous boundary.
+            addRecords.add(boundary);
+        } else if (mBoundaryActive) {
+            removeIds.add(BOUNDARY_IDENTIFIER);
+        }
+
+        mActiveIds.clear();
+        mActiveIds.addAll(selectedIds);
+        mDirtyIds.clear();
+        mBoundaryActive = boundary != null;
+        mOriginLatitude = latitude;
+        mOriginLongitude = longitude;
+        mActiveChanged = true;
+        persist();
+        return new ActiveSetPlan(addRecords, removeIds);
+    }
+
+    /**
+     * Turn the fences reported by Play Services into the transitions JS should see: the
+     * boundary is dropped and cluster parents are replaced by the children whose
+     * inside/outside state changed at the triggering location, which may be null when
+     * unknown. Each transition carries the location and its distance to the fence centre.
+     */
+    public synchronized List<GeofenceTransition> resolveTransitions(List<String> identifiers, int transition,
+                                                                     @Nullable Location location) {
+        ArrayList<GeofenceTransition> transitions = new ArrayList<>(identifiers.size());
+        boolean located = location != null;
+        double latitude = located ? location.getLatitude() : Double.NaN;
+        double longitude = located ? location.getLongitude() : Double.NaN;
+        for (String identifier : identifiers) {
+            if (BOUNDARY_IDENTIFIER.equals(identifier)) continue;
+            if (GeofenceShape.isPart(identifier)) {
+                GeofenceRecord record = mIndex.get(GeofenceShape.shapeId(identifier));
+                if (record == null || record.shape == null) continue;
+                if (!located && transition != GeofenceTransition.EXIT) continue;
+                // Covering circles overlap, so leaving one says nothing by itself; only the
+                // location against the shape counts.
+                updateInside(record, located && record.contains(latitude, longitude), location, transitions);
+                continue;
+            }
+            if (!GeofenceClusterer.isCluster(identifier)) {
+                GeofenceRecord record = mIndex.get(identifier);
+                if (record != null) {
+                    boolean inside = transition != GeofenceTransition.EXIT;
+                    if (inside ? mInsideChildren.add(identifier) : mInsideChildren.remove(identifier)) {
+                        setChildState(identifier, inside);
+                    }
+                }
+                transitions.add(createTransition(identifier, transition, record, location));
+                continue;
+            }
+            GeofenceRecord parent = mIndex.get(identifier);
+            if (parent == null || !parent.isCluster()) continue;
+            if (!located && transition != GeofenceTransition.EXIT) continue;
+            for (GeofenceRecord child : parent.children) {
+                updateInside(child, located && transition != GeofenceTransition.EXIT
+                        && child.contains(latitude, longitude), location, transitions);
+            }
+        }
+        if (transitions.size() > 0) {
+            long now = System.currentTimeMillis();
+            ArrayList<String> triggeredIds = new ArrayList<>(transitions.size());
+            for (GeofenceTransition resolvedTransition : transitions) {
+                if (setTriggered(resolvedTransition.identifier, now)) triggeredIds.add(resolvedTransition.identifier);
+            }
+            if (mRegistry != null && !triggeredIds.isEmpty()) mRegistry.setTriggered(triggeredIds, now);
+        }
+        persist();
+        return transitions;
+    }
+
+    private void updateInside(GeofenceRecord record, boolean inside, @Nullable Location location,
+                              List<GeofenceTransition> transitions) {
+        if (inside && mInsideChildren.add(record.identifier)) {
+            setChildState(record.identifier, true);
+            transitions.add(createTransition(record.identifier, GeofenceTransition.ENTER, record, location));
+        } else if (!inside && mInsideChildren.remove(record.identifier)) {
+            setChildState(record.identifier, false);
+            transitions.add(createTransition(record.identifier, GeofenceTransition.EXIT, record, location));
+        }
+    }
+
+    private static GeofenceTransition createTransition(String identifier, int transition,
+                                                       @Nullable GeofenceRecord record, @Nullable Location location) {
+        long now = System.currentTimeMillis();
+        if (location == null) {
+            return new GeofenceTransition(identifier, transition, now);
+        }
+        float distance = record != null
+                ? (float) GeoMath.distanceMeters(location.getLatitude(), location.getLongitude(),
+                        record.latitude, record.longitude)
+                : Float.NaN;
+        return new GeofenceTransition(identifier, transition, now, location.getLatitude(), location.getLongitude(),
+                location.hasAccuracy() ? location.getAccuracy() : Float.NaN,
+                location.hasSpeed() ? location.getSpeed() : Float.NaN,
+                location.getTime(),
+                distance);
+    }
+
+    /**
+     * Forget that the fences added by a plan are registered so that the next plan tries
+     * to add them again.
+     */
+    public synchronized void markInactive(ActiveSetPlan plan) {
+        for (GeofenceRecord record : plan.addRecords) {
+            if (BOUNDARY_IDENTIFIER.equals(record.identifier)) {
+                mBoundaryActive = false;
+            } else {
+                mActiveIds.remove(record.identifier);
+            }
+        }
+        mActiveChanged = true;
+        persist();
+    }
+
+    /**
+     * Take a child out of its cluster parent. Returns true when the parent was left
+     * empty and dropped from the catalog; it stays in the active set until a plan or
+     * the caller unregisters it.
+     */
+    private boolean detachChild(String childId) {
+        String parentId = mParentByChild.remove(childId);
+        if (parentId == null) return false;
+        if (mInsideChildren.remove(childId)) {
+            setChildState(childId, false);
+        }
+        GeofenceRecord parent = mIndex.get(parentId);
+        if (parent == null) return false;
+
+        ArrayList<GeofenceRecord> children = new ArrayList<>(parent.children.size());
+        for (GeofenceRecord child : parent.children) {
+            if (!child.identifier.equals(childId)) children.add(child);
+        }
+        if (children.isEmpty()) {
+            indexRemove(parentId);
+            mActiveChanged |= mDirtyIds.remove(parentId);
+            return true;
+        }
+        // Keep the parent geometry so the registered fence stays valid.
+        indexPut(new GeofenceRecord(parentId, parent.latitude, parent.longitude, parent.radius, children));
+        return false;
+    }
+
+    private void indexPut(GeofenceRecord record) {
+        GeofenceRecord previous = mIndex.put(record);
+        mSlotCount += record.slotCount() - (previous != null ? previous.slotCount() : 0);
+        if (mRegistry != null) mRegistry.put(record);
+    }
+
+    private GeofenceRecord indexRemove(String identifier) {
+        GeofenceRecord removed = mIndex.remove(identifier);
+        if (removed != null) {
+            mSlotCount -= removed.slotCount();
+            if (mRegistry != null) mRegistry.remove(identifier);
+        }
+        return removed;
+    }
+
+    /**
+     * Index a fence given by JS by group and eviction order before it is put. A fence
+     * that is replaced keeps the time it was last triggered; a new one is added to
+     * addedIds to have its add time stored.
+     */
+    private void updateFence(GeofenceRecord fence, long now, List<String> addedIds) {
+        GeofenceRecord previous = find(fence.identifier);
+        setGroup(fence.identifier, previous != null ? previous.group : null, fence.group);
+        EvictionEntry entry = mEvictionEntries.get(fence.identifier);
+        if (entry == null) {
+            addedIds.add(fence.identifier);
+            mChange.add(fence.identifier);
+        }
+        setEvictionEntry(fence, entry != null ? entry.triggeredAt : now);
+    }
+
+    private void setEvictionEntry(GeofenceRecord fence, @Nullable Long triggeredAt) {
+        removeEvictionEntry(fence.identifier);
+        // Fences from before the time was stored go first among their priority.
+        EvictionEntry entry = new EvictionEntry(fence.identifier, fence.options.priority,
+                triggeredAt != null ? triggeredAt : 0, fence.options.expiresAt);
+        mEvictionEntries.put(entry.identifier, entry);
+        mEvictionOrder.add(entry);
+        if (entry.expiresAt > 0) mExpiryOrder.add(entry);
+    }
+
+    private void removeEvictionEntry(String identifier) {
+        EvictionEntry entry = mEvictionEntries.remove(identifier);
+        if (entry != null) {
+            mEvictionOrder.remove(entry);
+            mExpiryOrder.remove(entry);
+        }
+    }
+
+    /**
+     * Move a fence back in the eviction order. Returns false for an unknown fence.
+     */
+    private boolean setTriggered(String identifier, long now) {
+        EvictionEntry entry = mEvictionEntries.get(identifier);
+        if (entry == null) return false;
+        mEvictionOrder.remove(entry);
+        entry = new EvictionEntry(identifier, entry.priority, now, entry.expiresAt);
+        mEvictionEntries.put(identifier, entry);
+        mEvictionOrder.add(entry);
+        if (entry.expiresAt > 0) {
+            // Equal in expiry order, but the set has to hold the current entry.
+            mExpiryOrder.remove(entry);
+            mExpiryOrder.add(entry);
+        }
+        return true;
+    }
+
+    /**
+     * Drop the fences that expired by now, then evict down to the maximum. The registered
+     * identifiers to remove from Play Services as a result are added to unregister.
+     */
+    private void evict(long now, List<String> unregister) {
+        ArrayList<String> expired = new ArrayList<>();
+        while (!mExpiryOrder.isEmpty() && mExpiryOrder.first().expiresAt <= now) {
+            String identifier = mExpiryOrder.first().identifier;
+            // Play Services dropped it already, unless it is registered through a cluster.
+            removeInternal(identifier, unregister, false);
+            expired.add(identifier);
+        }
+        ArrayList<String> evicted = new ArrayList<>();
+        while (mEvictionEntries.size() > mMaxFences) {
+            String identifier = mEvictionOrder.first().identifier;
+            removeInternal(identifier, unregister, false);
+            evicted.add(identifier);
+        }
+        if (mDetached || (expired.isEmpty() && evicted.isEmpty())) return;
+
+        GeofenceMetrics metrics = GeofenceMetrics.getInstance();
+        metrics.expired.addAndGet(expired.size());
+        metrics.evicted.addAndGet(evicted.size());
+        StateListener listener = sStateListener;
+        if (listener != null) listener.onEvicted(evicted, expired);
+    }
+
+    private void setGroup(String identifier, String oldGroup, String newGroup) {
+        if (oldGroup == null ? newGroup == null : oldGroup.equals(newGroup)) return;
+        if (oldGroup != null) {
+            LinkedHashSet<String> identifiers = mGroups.get(oldGroup);
+            if (identifiers != null && identifiers.remove(identifier) && identifiers.isEmpty()) {
+                mGroups.remove(oldGroup);
+            }
+        }
+        if (newGroup != null) {
+            LinkedHashSet<String> identifiers = mGroups.get(newGroup);
+            if (identifiers == null) {
+                identifiers = new LinkedHashSet<>();
+                mGroups.put(newGroup, identifiers);
+            }
+            identifiers.add(identifier);
+        }
+    }
+
+    private void setChildState(String childId, boolean inside) {
+        mChange.setInside(childId, inside);
+        if (mRegistry != null) mRegistry.setChildState(childId, inside);
+    }
+
+    private void clearState() {
+        mIndex.clear();
+        mActiveIds.clear();
+        mDirtyIds.clear();
+        mParentByChild.clear();
+        mInsideChildren.clear();
+        mOrphanIds.clear();
+        mGroups.clear();
+        mEvictionEntries.clear();
+        mEvictionOrder.clear();
+        mExpiryOrder.clear();
+        mSlotCount = 0;
+        mBoundaryActive = false;
+        mOriginLatitude = Double.NaN;
+        mOriginLongitude = Double.NaN;
+        mActiveChanged = false;
+        mChange = new StateChange();
+        mChange.reset = true;
+    }
+
+    private void publishState() {
+        if (mChange.isEmpty()) return;
+        StateChange change = mChange;
+        mChange = new StateChange();
+        change.version = ++mVersion;
+        StateListener listener = mDetached ? null : sStateListener;
+        if (listener != null) listener.onStateChanged(change);
+    }
+
+    /**
+     * Append the changes made by the current call to the registry.
+     */
+    private void persist() {
+        publishState();
+        if (mRegistry == null) return;
+        if (mActiveChanged) {
+            mRegistry.setActive(mActiveIds, mDirtyIds, mBoundaryActive, mOriginLatitude, mOriginLongitude);
+            mActiveChanged = false;
+        }
+        mRegistry.flush();
+        if (mRegistry.needsCompaction(mIndex.size())) {
+            HashMap<String, Long> triggeredAt = new HashMap<>(mEvictionEntries.size() * 2);
+            for (EvictionEntry entry : mEvictionEntries.values()) {
+                triggeredAt.put(entry.identifier, entry.triggeredAt);
+            }
+            mRegistry.compact(mIndex.values(), mActiveIds, mDirtyIds, mBoundaryActive,
+                    mOriginLatitude, mOriginLongitude, mInsideChildren, triggeredAt);
+        }
+    }
+}
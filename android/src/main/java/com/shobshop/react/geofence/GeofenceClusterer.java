@@ -0,0 +1,100 @@
+package com.shobshop.react.geofence;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Groups nearby fences under a single parent circle so that a dense area costs one
+ * registered geofence instead of dozens. Children of a parent are resolved natively
+ * against the triggering location when the parent fires.
+ */
+public final class GeofenceClusterer {
+    public static final String CLUSTER_PREFIX = "RNGeofence:CLUSTER:";
+    // Bounds the work done per parent transition.
+    static final int MAX_CHILDREN = 64;
+
+    private GeofenceClusterer() {
+    }
+
+    public static boolean isCluster(String identifier) {
+        return identifier.startsWith(CLUSTER_PREFIX);
+    }
+
+    /**
+     * Greedily group records whose circles fit inside a parent of at most
+     * {@code maxRadius} meters. Fences that end up alone are returned unchanged, and so
+     * are shapes and dwell fences: Play Services has to time the loitering on the fence
+     * itself. Only fences of the same group share a parent, so removing a group never
+     * leaves a parent registered for fences that are gone.
+     */
+    public static List<GeofenceRecord> cluster(List<GeofenceRecord> records, float maxRadius) {
+        GeofenceIndex pending = new GeofenceIndex();
+        ArrayList<GeofenceRecord> result = new ArrayList<>();
+        for (GeofenceRecord record : records) {
+            if (record.shape != null || record.options.isDwell()) {
+                result.add(record);
+            } else {
+                pending.put(record);
+            }
+        }
+        for (GeofenceRecord seed : records) {
+            if (pending.get(seed.identifier) != seed) continue;
+
+            pending.remove(seed.identifier);
+            ArrayList<GeofenceRecord> members = new ArrayList<>();
+            members.add(seed);
+            if (seed.radius < maxRadius) {
+                for (GeofenceRecord candidate : pending.nearest(seed.latitude, seed.longitude, MAX_CHILDREN - 1)) {
+                    double reach = GeoMath.distanceMeters(seed.latitude, seed.longitude,
+                            candidate.latitude, candidate.longitude) + candidate.radius;
+                    if (reach <= maxRadius && isSameGroup(seed, candidate)) {
+                        members.add(candidate);
+                    }
+                }
+            }
+            for (GeofenceRecord member : members) {
+                pending.remove(member.identifier);
+            }
+            if (members.size() <= 1) {
+                result.add(seed);
+            } else {
+                result.add(createParent(seed, members));
+            }
+        }
+        return result;
+    }
+
+    private static boolean isSameGroup(GeofenceRecord a, GeofenceRecord b) {
+        return a.group == null ? b.group == null : a.group.equals(b.group);
+    }
+
+    private static GeofenceRecord createParent(GeofenceRecord seed, List<GeofenceRecord> members) {
+        double latitude = 0, longitude = 0;
+        for (GeofenceRecord member : members) {
+            latitude += member.latitude;
+            longitude += member.longitude;
+        }
+        latitude /= members.size();
+        longitude /= members.size();
+
+        // Centring on the members usually gives a tighter circle than centring on the seed.
+        double centroidRadius = enclosingRadius(latitude, longitude, members);
+        double seedRadius = enclosingRadius(seed.latitude, seed.longitude, members);
+        if (seedRadius < centroidRadius) {
+            latitude = seed.latitude;
+            longitude = seed.longitude;
+            centroidRadius = seedRadius;
+        }
+        return new GeofenceRecord(CLUSTER_PREFIX + seed.identifier, latitude, longitude,
+                (float) Math.ceil(centroidRadius), members);
+    }
+
+    private static double enclosingRadius(double latitude, double longitude, List<GeofenceRecord> members) {
+        double radius = 0;
+        for (GeofenceRecord member : members) {
+            radius = Math.max(radius, GeoMath.distanceMeters(latitude, longitude,
+                    member.latitude, member.longitude) + member.radius);
+        }
+        return radius;
+    }
+}
@@ -0,0 +1,512 @@
+package com.shobshop.react.geofence;
+
+import android.content.Context;
+import android.location.Location;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.google.android.gms.common.api.ApiException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Single background thread through which every catalog change and Play Services call
+ * goes, keeping geofence management off the UI thread and strictly ordered. Commands
+ * arriving within {@link #COALESCE_WINDOW_MS} of each other are applied to the catalog
+ * one by one, then pushed to the {@link GeofencingBackend} together as one batched
+ * remove and one batched add. Each command's promise is settled with its own result: when
+ * a batched call fails, the fences of each command are sent on their own, so that only the
+ * commands Play Services refuses fail.
+ */
+public class GeofenceCommandQueue {
+    private static final String TAG = "RNGeofenceCommands";
+    static final long COALESCE_WINDOW_MS = 30;
+
+    private static final int ADD = 0;
+    private static final int REMOVE = 1;
+    private static final int REMOVE_ALL = 2;
+    private static final int SYNC = 3;
+    private static final int REMOVE_GROUP = 4;
+    private static final int REPLACE_GROUP = 5;
+    private static final int LIST_GROUP = 6;
+
+    private static GeofenceCommandQueue sInstance;
+
+    private final Context mContext;
+    private final ScheduledExecutorService mExecutor;
+    private final ArrayList<Command> mPending = new ArrayList<>();
+    private boolean mFlushScheduled;
+    // Only touched on the command thread.
+    private final GeofencingBackend mBackend;
+
+    public static synchronized GeofenceCommandQueue getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new GeofenceCommandQueue(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private GeofenceCommandQueue(Context context) {
+        mContext = context;
+        mBackend = new PlayServicesBackend(context);
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    public void add(List<GeofenceRecord> records, Promise promise) {
+        enqueue(new Command(ADD, records, null, 0, promise));
+    }
+
+    public void remove(String identifier, Promise promise) {
+        enqueue(new Command(REMOVE, null, identifier, 0, promise));
+    }
+
+    public void removeAll(Promise promise) {
+        enqueue(new Command(REMOVE_ALL, null, null, 0, promise));
+    }
+
+    public void sync(List<GeofenceRecord> desired, float clusterRadius, Promise promise) {
+        enqueue(new Command(SYNC, desired, null, clusterRadius, promise));
+    }
+
+    public void removeGroup(String group, Promise promise) {
+        enqueue(new Command(REMOVE_GROUP, null, group, 0, promise));
+    }
+
+    public void replaceGroup(String group, List<GeofenceRecord> desired, float clusterRadius, Promise promise) {
+        enqueue(new Command(REPLACE_GROUP, desired, group, clusterRadius, promise));
+    }
+
+    /**
+     * Goes through the queue so that it sees the commands sent before it.
+     */
+    public void listGroup(String group, Promise promise) {
+        enqueue(new Command(LIST_GROUP, null, group, 0, promise));
+    }
+
+    /**
+     * Run work on the command thread and wait for it, for callers that already block such
+     * as the IntentService worker. Returns null if it failed or timed out.
+     */
+    @Nullable
+    public <T> T runAndWait(Callable<T> work, long timeoutSeconds) {
+        try {
+            return mExecutor.submit(work).get(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            Log.e(TAG, "Command failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /**
+     * Apply a plan from the command thread, blocking until the backend answers.
+     */
+    boolean applyBlocking(GeofenceCatalog catalog, ActiveSetPlan plan) {
+        Exception removeError = plan.removeIds.isEmpty() ? null : removeBlocking(plan.removeIds);
+        Exception addError = plan.addRecords.isEmpty() ? null : addBlocking(plan.addRecords);
+        if (addError != null) {
+            catalog.markInactive(plan);
+        }
+        return removeError == null && addError == null;
+    }
+
+    private void enqueue(Command command) {
+        synchronized (mPending) {
+            mPending.add(command);
+            if (mFlushScheduled) return;
+            mFlushScheduled = true;
+        }
+        mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, COALESCE_WINDOW_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        ArrayList<Command> batch;
+        synchronized (mPending) {
+            batch = new ArrayList<>(mPending);
+            mPending.clear();
+            mFlushScheduled = false;
+        }
+        if (batch.isEmpty()) return;
+
+        RuntimeException failure = null;
+        try {
+            apply(batch);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Cannot apply " + batch.size() + " commands", e);
+            failure = e;
+        } finally {
+            // No caller is left waiting, whatever went wrong.
+            for (Command command : batch) {
+                if (command.settled) continue;
+                Exception error = command.error != null ? command.error
+                        : failure != null ? failure : new IllegalStateException("Command was not applied");
+                settle(command, error, "GEOFENCE_COMMAND_FAILED", "Geofence command failed");
+            }
+        }
+    }
+
+    private void apply(List<Command> batch) {
+        GeofenceCatalog catalog = GeofenceCatalog.getInstance(mContext);
+        boolean removeAll = false;
+        GeofenceRecord fallback = null;
+        for (int i = 0; i < batch.size(); i++) {
+            Command command = batch.get(i);
+            try {
+                switch (command.type) {
+                    case ADD:
+                        ArrayList<String> putIds = new ArrayList<>(command.records.size());
+                        for (GeofenceRecord record : command.records) {
+                            if (record.isCluster()) {
+                                for (GeofenceRecord child : record.children) putIds.add(child.identifier);
+                            } else {
+                                putIds.add(record.identifier);
+                            }
+                        }
+                        command.putIds.addAll(putIds);
+                        rememberPrevious(catalog, command);
+                        catalog.putAll(command.records);
+                        if (fallback == null && !command.records.isEmpty()) fallback = command.records.get(0);
+                        break;
+                    case REMOVE:
+                        command.unregisterIds.addAll(catalog.remove(command.identifier));
+                        break;
+                    case REMOVE_ALL:
+                        // Everything goes, including what earlier commands of this batch asked
+                        // to unregister.
+                        catalog.clear();
+                        for (int j = 0; j < i; j++) batch.get(j).unregisterIds.clear();
+                        removeAll = true;
+                        break;
+                    case SYNC:
+                    case REPLACE_GROUP:
+                        rememberPrevious(catalog, command);
+                        GeofenceCatalog.SyncResult syncResult = command.type == SYNC
+                                ? catalog.sync(command.records, command.clusterRadius)
+                                : catalog.replaceGroup(command.identifier, command.records, command.clusterRadius);
+                        Log.i(TAG, "Sync result = " + syncResult);
+                        command.unregisterIds.addAll(syncResult.unregisterIds);
+                        command.putIds.addAll(syncResult.upsertIds);
+                        command.result = createSyncResultMap(syncResult);
+                        if (fallback == null && !command.records.isEmpty()) fallback = command.records.get(0);
+                        break;
+                    case REMOVE_GROUP:
+                        command.unregisterIds.addAll(catalog.removeGroup(command.identifier));
+                        break;
+                    case LIST_GROUP:
+                        WritableArray identifiers = Arguments.createArray();
+                        for (String identifier : catalog.listGroup(command.identifier)) identifiers.pushString(identifier);
+                        command.result = identifiers;
+                        break;
+                }
+            } catch (RuntimeException e) {
+                // Only this command fails, and what it put is rolled back.
+                Log.e(TAG, "Command " + command.type + " failed", e);
+                command.error = e;
+                rollBack(catalog, command, command.unregisterIds);
+            }
+        }
+
+        if (removeAll) {
+            long start = SystemClock.elapsedRealtime();
+            Exception removeAllError = mBackend.removeAllGeofences();
+            recordRemove(start, removeAllError);
+            for (Command command : batch) {
+                if (command.type == REMOVE_ALL && command.error == null) command.error = removeAllError;
+            }
+        }
+
+        ActiveSetPlan plan = planActiveSet(catalog, fallback);
+        Log.i(TAG, batch.size() + " commands, catalog size = " + catalog.size() + ", " + plan);
+        ArrayList<String> removeIds = new ArrayList<>(plan.removeIds);
+        for (Command command : batch) removeIds.addAll(command.unregisterIds);
+        Exception removeError = removeIds.isEmpty() ? null : removeBlocking(removeIds);
+        if (removeError != null) {
+            retryRemoves(batch, plan);
+        }
+        Exception addError = plan.addRecords.isEmpty() ? null : addBlocking(plan.addRecords);
+        if (addError != null) {
+            retryAdds(catalog, batch, plan, addError);
+        }
+
+        for (Command command : batch) {
+            switch (command.type) {
+                case ADD:
+                case SYNC:
+                case REPLACE_GROUP:
+                    settle(command, command.error, "ADD_GEOFENCE_FAILED", "Add geofence failed");
+                    break;
+                case REMOVE:
+                case REMOVE_GROUP:
+                case REMOVE_ALL:
+                    settle(command, command.error, "REMOVE_GEOFENCE_FAILED", "Remove geofence failed");
+                    break;
+                case LIST_GROUP:
+                    settle(command, command.error, "GEOFENCE_COMMAND_FAILED", "List group failed");
+                    break;
+            }
+        }
+    }
+
+    /**
+     * The batched remove failed: remove what each command asked for on its own, so that
+     * only the commands whose fences could not be removed fail.
+     */
+    private void retryRemoves(List<Command> batch, ActiveSetPlan plan) {
+        if (!plan.removeIds.isEmpty()) {
+            removeBlocking(plan.removeIds);
+        }
+        for (Command command : batch) {
+            if (command.unregisterIds.isEmpty() || command.error != null) continue;
+            command.error = removeBlocking(command.unregisterIds);
+        }
+    }
+
+    /**
+     * The batched add failed: add the fences of each command on its own, and those the
+     * plan added by itself (rotation, fences to register again) together. A command whose
+     * fences are refused fails, and the fences it put are rolled back; fences of the plan
+     * itself stay in the catalog for the next plan to try again.
+     */
+    private void retryAdds(GeofenceCatalog catalog, List<Command> batch, ActiveSetPlan plan, Exception addError) {
+        // Which command put each fence, the last one when several did.
+        HashMap<String, Command> owners = new HashMap<>();
+        for (Command command : batch) {
+            for (String identifier : command.putIds) owners.put(identifier, command);
+        }
+        LinkedHashMap<Command, List<GeofenceRecord>> parts = new LinkedHashMap<>();
+        ArrayList<GeofenceRecord> planned = new ArrayList<>();
+        for (GeofenceRecord record : plan.addRecords) {
+            Command owner = findOwner(owners, record);
+            if (owner == null) {
+                planned.add(record);
+                continue;
+            }
+            List<GeofenceRecord> records = parts.get(owner);
+            if (records == null) {
+                records = new ArrayList<>();
+                parts.put(owner, records);
+            }
+            records.add(record);
+        }
+        // A single part is what failed already.
+        boolean single = parts.size() + (planned.isEmpty() ? 0 : 1) == 1;
+
+        if (!planned.isEmpty()) {
+            Exception error = single ? addError : addBlocking(planned);
+            if (error != null) {
+                catalog.markInactive(new ActiveSetPlan(planned, Collections.<String>emptyList()));
+            }
+        }
+        ArrayList<String> unregisterIds = new ArrayList<>();
+        boolean restored = false;
+        for (Map.Entry<Command, List<GeofenceRecord>> part : parts.entrySet()) {
+            Command command = part.getKey();
+            Exception error = single ? addError : addBlocking(part.getValue());
+            if (error == null) continue;
+            Log.w(TAG, "Command " + command.type + " refused, roll back its " + command.putIds.size() + " geofences");
+            if (command.error == null) command.error = error;
+            catalog.markInactive(new ActiveSetPlan(part.getValue(), Collections.<String>emptyList()));
+            restored |= rollBack(catalog, command, unregisterIds);
+        }
+        // An earlier version of a dropped fence may still be registered.
+        if (!unregisterIds.isEmpty()) {
+            removeBlocking(unregisterIds);
+        }
+        // Register the restored fences again rather than wait for the next plan.
+        if (restored) {
+            applyBlocking(catalog, planActiveSet(catalog, null));
+        }
+    }
+
+    /**
+     * Keep what the catalog holds for each fence the command is about to put, so that a
+     * failure can restore it.
+     */
+    private static void rememberPrevious(GeofenceCatalog catalog, Command command) {
+        for (GeofenceRecord record : command.records) {
+            if (record.isCluster()) {
+                for (GeofenceRecord child : record.children) {
+                    command.previous.put(child.identifier, catalog.find(child.identifier));
+                }
+            } else {
+                command.previous.put(record.identifier, catalog.find(record.identifier));
+            }
+        }
+    }
+
+    /**
+     * Undo what a failed command put: fences it changed get their previous record back,
+     * fences it added are taken out of the catalog. The registered identifiers to remove
+     * as a result are added to unregisterIds. Returns whether any fence was restored.
+     */
+    private static boolean rollBack(GeofenceCatalog catalog, Command command, List<String> unregisterIds) {
+        ArrayList<GeofenceRecord> restore = new ArrayList<>();
+        for (String identifier : command.putIds) {
+            GeofenceRecord previous = command.previous.get(identifier);
+            if (previous != null) {
+                restore.add(previous);
+                continue;
+            }
+            try {
+                unregisterIds.addAll(catalog.remove(identifier));
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Cannot roll back " + identifier, e);
+            }
+        }
+        if (restore.isEmpty()) return false;
+        try {
+            catalog.putAll(restore);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Cannot restore " + restore.size() + " geofences", e);
+            return false;
+        }
+        return true;
+    }
+
+    @Nullable
+    private static Command findOwner(Map<String, Command> owners, GeofenceRecord record) {
+        Command owner = owners.get(record.identifier);
+        if (owner != null || !record.isCluster()) return owner;
+        for (GeofenceRecord child : record.children) {
+            owner = owners.get(child.identifier);
+            if (owner != null) return owner;
+        }
+        return null;
+    }
+
+    private ActiveSetPlan planActiveSet(GeofenceCatalog catalog, @Nullable GeofenceRecord fallback) {
+        double latitude = catalog.getOriginLatitude();
+        double longitude = catalog.getOriginLongitude();
+        if (fallback != null && (Double.isNaN(latitude) || Double.isNaN(longitude))) {
+            latitude = fallback.latitude;
+            longitude = fallback.longitude;
+        }
+        // Only the fences near the device get registered once the catalog is over the Play
+        // Services limit.
+        if (catalog.needsRotation()) {
+            Location location = getLastLocation();
+            if (location != null) {
+                latitude = location.getLatitude();
+                longitude = location.getLongitude();
+            }
+        }
+        if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            latitude = 0;
+            longitude = 0;
+        }
+        return catalog.plan(latitude, longitude);
+    }
+
+    @Nullable
+    private Exception removeBlocking(List<String> identifiers) {
+        long start = SystemClock.elapsedRealtime();
+        Exception error = mBackend.removeGeofences(identifiers);
+        recordRemove(start, error);
+        return error;
+    }
+
+    @Nullable
+    private Exception addBlocking(List<GeofenceRecord> records) {
+        long start = SystemClock.elapsedRealtime();
+        Exception error = mBackend.addGeofences(records);
+        GeofenceMetrics metrics = GeofenceMetrics.getInstance();
+        metrics.addLatency.record(SystemClock.elapsedRealtime() - start);
+        if (error != null) metrics.recordAddError(getStatusCode(error));
+        return error;
+    }
+
+    private static void recordRemove(long start, @Nullable Exception error) {
+        GeofenceMetrics metrics = GeofenceMetrics.getInstance();
+        metrics.removeLatency.record(SystemClock.elapsedRealtime() - start);
+        if (error != null) metrics.recordRemoveError(getStatusCode(error));
+    }
+
+    private static int getStatusCode(Exception error) {
+        return error instanceof ApiException ? ((ApiException) error).getStatusCode() : -1;
+    }
+
+    /**
+     * Last known location from the backend. Only call from the command thread.
+     */
+    @Nullable
+    Location getLastLocation() {
+        return mBackend.getLastLocation();
+    }
+
+    private static void settle(Command command, @Nullable Exception error, String errorCode, String errorMessage) {
+        command.settled = true;
+        if (command.promise == null) return;
+        if (error == null) {
+            command.promise.resolve(command.result);
+            return;
+        }
+        if (error instanceof ApiException) {
+            errorMessage += ": " + ((ApiException) error).getStatusCode();
+        }
+        command.promise.reject(errorCode, errorMessage, error);
+    }
+
+    private static WritableMap createSyncResultMap(GeofenceCatalog.SyncResult syncResult) {
+        WritableMap resultMap = Arguments.createMap();
+        resultMap.putInt("added", syncResult.added);
+        resultMap.putInt("removed", syncResult.removed);
+        resultMap.putInt("changed", syncResult.changed);
+        resultMap.putInt("unchanged", syncResult.unchanged);
+        return resultMap;
+    }
+
+    private static final class Command {
+        final int type;
+        final List<GeofenceRecord> records;
+        final String identifier;
+        final float clusterRadius;
+        final Promise promise;
+        Object result = true;
+        // Identifiers given by JS this command added or changed, and registered
+        // identifiers it asked to remove from Play Services.
+        final ArrayList<String> putIds = new ArrayList<>();
+        final ArrayList<String> unregisterIds = new ArrayList<>();
+        // What the catalog held for each fence the command put, null for a new one.
+        final HashMap<String, GeofenceRecord> previous = new HashMap<>();
+        Exception error;
+        boolean settled;
+
+        Command(int type, List<GeofenceRecord> records, String identifier, float clusterRadius, Promise promise) {
+            this.type = type;
+            this.records = records;
+            this.identifier = identifier;
+            this.clusterRadius = clusterRadius;
+            this.promise = promise;
+        }
+    }
+}
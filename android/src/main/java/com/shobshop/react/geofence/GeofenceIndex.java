@@ -0,0 +1,210 @@
+package com.shobshop.react.geofence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * In-memory spatial index over every geofence the app has added. Fences are bucketed
+ * into a fixed lat/lng grid so that nearest-fence lookups only visit the cells around
+ * the query point, growing ring by ring until no unvisited cell can beat the current
+ * candidates. Not thread safe; {@link GeofenceCatalog} guards access to it.
+ */
+public class GeofenceIndex {
+    // ~5.5 km per cell at the equator. Dense catalogs stay at a few hundred fences per
+    // cell while sparse ones do not need too many rings to find a neighbour.
+    static final double CELL_DEGREES = 0.05;
+
+    private static final Comparator<Candidate> FARTHEST_FIRST = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate a, Candidate b) {
+            return Double.compare(b.distance, a.distance);
+        }
+    };
+
+    private final HashMap<String, GeofenceRecord> mRecords = new HashMap<>();
+    private final HashMap<Long, ArrayList<GeofenceRecord>> mCells = new HashMap<>();
+    private float mMaxRadius;
+    private int mMinCellX = Integer.MAX_VALUE, mMaxCellX = Integer.MIN_VALUE;
+    private int mMinCellY = Integer.MAX_VALUE, mMaxCellY = Integer.MIN_VALUE;
+
+    /**
+     * Add or replace a record. Returns the record previously stored under the same
+     * identifier, if any.
+     */
+    public GeofenceRecord put(GeofenceRecord record) {
+        GeofenceRecord previous = mRecords.put(record.identifier, record);
+        if (previous != null) {
+            removeFromCell(previous);
+        }
+        int cellX = cellX(record.longitude);
+        int cellY = cellY(record.latitude);
+        long key = cellKey(cellX, cellY);
+        ArrayList<GeofenceRecord> cell = mCells.get(key);
+        if (cell == null) {
+            cell = new ArrayList<>(4);
+            mCells.put(key, cell);
+        }
+        cell.add(record);
+        if (record.radius > mMaxRadius) mMaxRadius = record.radius;
+        if (cellX < mMinCellX) mMinCellX = cellX;
+        if (cellX > mMaxCellX) mMaxCellX = cellX;
+        if (cellY < mMinCellY) mMinCellY = cellY;
+        if (cellY > mMaxCellY) mMaxCellY = cellY;
+        return previous;
+    }
+
+    public GeofenceRecord remove(String identifier) {
+        GeofenceRecord removed = mRecords.remove(identifier);
+        if (removed != null) {
+            removeFromCell(removed);
+        }
+        return removed;
+    }
+
+    public GeofenceRecord get(String identifier) {
+        return mRecords.get(identifier);
+    }
+
+    public boolean contains(String identifier) {
+        return mRecords.containsKey(identifier);
+    }
+
+    public int size() {
+        return mRecords.size();
+    }
+
+    public Collection<GeofenceRecord> values() {
+        return Collections.unmodifiableCollection(mRecords.values());
+    }
+
+    public void clear() {
+        mRecords.clear();
+        mCells.clear();
+        mMaxRadius = 0;
+        mMinCellX = mMinCellY = Integer.MAX_VALUE;
+        mMaxCellX = mMaxCellY = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Return up to {@code count} records ordered by the distance from the given point to
+     * their rim, closest first.
+     */
+    public List<GeofenceRecord> nearest(double latitude, double longitude, int count) {
+        if (count <= 0 || mRecords.isEmpty()) {
+            return new ArrayList<>(0);
+        }
+        PriorityQueue<Candidate> heap = new PriorityQueue<>(count + 1, FARTHEST_FIRST);
+        if (count >= mRecords.size()) {
+            scan(mRecords.values(), latitude, longitude, count, heap);
+            return drain(heap);
+        }
+
+        int originX = cellX(longitude);
+        int originY = cellY(latitude);
+        int maxRing = Math.max(
+                Math.max(originX - mMinCellX, mMaxCellX - originX),
+                Math.max(originY - mMinCellY, mMaxCellY - originY));
+        int visitedCells = 0;
+        for (int ring = 0; ring <= maxRing; ring++) {
+            if (heap.size() == count && ringLowerBound(latitude, ring) - mMaxRadius > heap.peek().distance) {
+                break;
+            }
+            // Sparse catalogs can leave a large empty gap around the query point. Once
+            // walking rings costs more than touching every occupied cell, just scan them.
+            visitedCells += ring == 0 ? 1 : 8 * ring;
+            if (visitedCells > 2 * mCells.size()) {
+                heap.clear();
+                scan(mRecords.values(), latitude, longitude, count, heap);
+                break;
+            }
+            for (int dy = -ring; dy <= ring; dy++) {
+                boolean edgeRow = dy == -ring || dy == ring;
+                int step = edgeRow ? 1 : 2 * ring;
+                for (int dx = -ring; dx <= ring; dx += Math.max(step, 1)) {
+                    ArrayList<GeofenceRecord> cell = mCells.get(cellKey(originX + dx, originY + dy));
+                    if (cell != null) {
+                        scan(cell, latitude, longitude, count, heap);
+                    }
+                }
+            }
+        }
+        return drain(heap);
+    }
+
+    private static void scan(Collection<GeofenceRecord> records, double latitude, double longitude,
+                             int count, PriorityQueue<Candidate> heap) {
+        for (GeofenceRecord record : records) {
+            double distance = GeoMath.distanceToRim(latitude, longitude, record);
+            if (heap.size() < count) {
+                heap.add(new Candidate(record, distance));
+            } else if (distance < heap.peek().distance) {
+                heap.poll();
+                heap.add(new Candidate(record, distance));
+            }
+        }
+    }
+
+    private static List<GeofenceRecord> drain(PriorityQueue<Candidate> heap) {
+        GeofenceRecord[] ordered = new GeofenceRecord[heap.size()];
+        for (int i = ordered.length - 1; i >= 0; i--) {
+            ordered[i] = heap.poll().record;
+        }
+        ArrayList<GeofenceRecord> result = new ArrayList<>(ordered.length);
+        Collections.addAll(result, ordered);
+        return result;
+    }
+
+    /**
+     * Smallest possible distance in meters between the query point and any fence centre
+     * lying in {@code ring} or further out.
+     */
+    private static double ringLowerBound(double latitude, int ring) {
+        if (ring <= 1) return 0;
+        double farthestLatitude = Math.min(89.9, Math.abs(latitude) + ring * CELL_DEGREES);
+        return (ring - 1) * CELL_DEGREES * GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(farthestLatitude));
+    }
+
+    private void removeFromCell(GeofenceRecord record) {
+        long key = cellKey(cellX(record.longitude), cellY(record.latitude));
+        ArrayList<GeofenceRecord> cell = mCells.get(key);
+        if (cell == null) return;
+        for (int i = 0; i < cell.size(); i++) {
+            if (cell.get(i) == record) {
+                // Order inside a cell does not matter, swap-remove keeps it O(1).
+                cell.set(i, cell.get(cell.size() - 1));
+                cell.remove(cell.size() - 1);
+                break;
+            }
+        }
+        if (cell.isEmpty()) {
+            mCells.remove(key);
+        }
+    }
+
+    private static int cellX(double longitude) {
+        return (int) Math.floor(longitude / CELL_DEGREES);
+    }
+
+    private static int cellY(double latitude) {
+        return (int) Math.floor(latitude / CELL_DEGREES);
+    }
+
+    private static long cellKey(int cellX, int cellY) {
+        return ((long) cellY << 32) | (cellX & 0xffffffffL);
+    }
+
+    private static final class Candidate {
+        final GeofenceRecord record;
+        final double distance;
+
+        Candidate(GeofenceRecord record, double distance) {
+            this.record = record;
+            this.distance = distance;
+        }
+    }
+}
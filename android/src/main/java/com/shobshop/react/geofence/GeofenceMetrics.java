@@ -0,0 +1,170 @@
+package com.shobshop.react.geofence;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide counters and latency histograms for the transition pipeline and the Play
+ * Services calls, read from JS through getMetrics(). Kept in memory only, so they cover
+ * the current process.
+ */
+public class GeofenceMetrics {
+    private static final GeofenceMetrics sInstance = new GeofenceMetrics();
+
+    // Geofencing events received from the backend.
+    public final AtomicLong eventsReceived = new AtomicLong();
+    // Transitions emitted to JS as events.
+    public final AtomicLong transitionsDelivered = new AtomicLong();
+    // Transitions handed to JS through drainPendingTransitions().
+    public final AtomicLong transitionsDrained = new AtomicLong();
+    // Transitions left in the queue because React was not running and wake is off.
+    public final AtomicLong transitionsQueued = new AtomicLong();
+    // Enter/exit pairs dropped by the debounce.
+    public final AtomicLong flapsDropped = new AtomicLong();
+    // Deliveries that had to start React first.
+    public final AtomicLong coldStarts = new AtomicLong();
+    // Transitions posted by the outbox and acknowledged, or refused for good by the endpoint.
+    public final AtomicLong outboxSent = new AtomicLong();
+    public final AtomicLong outboxRejected = new AtomicLong();
+    // Posts that failed and were left for a retry.
+    public final AtomicLong outboxFailures = new AtomicLong();
+    // Transitions not added to the outbox because it was full.
+    public final AtomicLong outboxDropped = new AtomicLong();
+
+    // From the transition to the emit, including any debounce and batching window.
+    public final LatencyHistogram deliveryLatency = new LatencyHistogram();
+    // From the transition to a usable React context, split by whether React had to start.
+    // Only the transitions of the event that asked for React, not those queued before it.
+    public final LatencyHistogram coldReadyLatency = new LatencyHistogram();
+    public final LatencyHistogram warmReadyLatency = new LatencyHistogram();
+    // From the triggering location fix to the transition being handled.
+    public final LatencyHistogram fixAge = new LatencyHistogram();
+
+    public final LatencyHistogram addLatency = new LatencyHistogram();
+    public final LatencyHistogram removeLatency = new LatencyHistogram();
+    public final LatencyHistogram recoveryLatency = new LatencyHistogram();
+    // Location and boot broadcasts folded into a recovery pass already waiting, and
+    // passes that found the fences still registered.
+    public final AtomicLong broadcastsMerged = new AtomicLong();
+    public final AtomicLong recoveriesSkipped = new AtomicLong();
+    // Re-registrations of the active set for a new notification responsiveness.
+    public final AtomicLong responsivenessChanges = new AtomicLong();
+    // Fences the catalog dropped to stay within its maximum, and past their expiration.
+    public final AtomicLong evicted = new AtomicLong();
+    public final AtomicLong expired = new AtomicLong();
+    private final HashMap<Integer, Long> mAddErrors = new HashMap<>();
+    private final HashMap<Integer, Long> mRemoveErrors = new HashMap<>();
+
+    public static GeofenceMetrics getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Count a failed Play Services call by status code, -1 when there is none.
+     */
+    public void recordAddError(int statusCode) {
+        increment(mAddErrors, statusCode);
+    }
+
+    public void recordRemoveError(int statusCode) {
+        increment(mRemoveErrors, statusCode);
+    }
+
+    public WritableMap toWritableMap(GeofenceCatalog catalog) {
+        WritableMap events = Arguments.createMap();
+        events.putDouble("received", eventsReceived.get());
+        events.putDouble("delivered", transitionsDelivered.get());
+        events.putDouble("drained", transitionsDrained.get());
+        events.putDouble("queued", transitionsQueued.get());
+        events.putDouble("flapsDropped", flapsDropped.get());
+        events.putDouble("coldStarts", coldStarts.get());
+
+        WritableMap playServices = Arguments.createMap();
+        playServices.putMap("addLatency", createHistogramMap(addLatency));
+        playServices.putMap("removeLatency", createHistogramMap(removeLatency));
+        playServices.putMap("addErrors", createErrorMap(mAddErrors));
+        playServices.putMap("removeErrors", createErrorMap(mRemoveErrors));
+        playServices.putMap("recoveryLatency", createHistogramMap(recoveryLatency));
+        playServices.putDouble("responsivenessChanges", responsivenessChanges.get());
+        playServices.putDouble("broadcastsMerged", broadcastsMerged.get());
+        playServices.putDouble("recoveriesSkipped", recoveriesSkipped.get());
+
+        WritableMap outbox = Arguments.createMap();
+        outbox.putDouble("sent", outboxSent.get());
+        outbox.putDouble("rejected", outboxRejected.get());
+        outbox.putDouble("failures", outboxFailures.get());
+        outbox.putDouble("dropped", outboxDropped.get());
+
+        WritableMap metrics = Arguments.createMap();
+        metrics.putMap("events", events);
+        metrics.putMap("deliveryLatency", createHistogramMap(deliveryLatency));
+        metrics.putMap("coldReadyLatency", createHistogramMap(coldReadyLatency));
+        metrics.putMap("warmReadyLatency", createHistogramMap(warmReadyLatency));
+        metrics.putMap("fixAge", createHistogramMap(fixAge));
+        metrics.putMap("playServices", playServices);
+        metrics.putMap("outbox", outbox);
+        metrics.putInt("registered", catalog.registeredCount());
+        metrics.putInt("catalogSize", catalog.size());
+        metrics.putDouble("evicted", evicted.get());
+        metrics.putDouble("expired", expired.get());
+        return metrics;
+    }
+
+    public void reset() {
+        eventsReceived.set(0);
+        transitionsDelivered.set(0);
+        transitionsDrained.set(0);
+        transitionsQueued.set(0);
+        flapsDropped.set(0);
+        coldStarts.set(0);
+        outboxSent.set(0);
+        outboxRejected.set(0);
+        outboxFailures.set(0);
+        outboxDropped.set(0);
+        deliveryLatency.reset();
+        coldReadyLatency.reset();
+        warmReadyLatency.reset();
+        fixAge.reset();
+        addLatency.reset();
+        removeLatency.reset();
+        recoveryLatency.reset();
+        responsivenessChanges.set(0);
+        broadcastsMerged.set(0);
+        recoveriesSkipped.set(0);
+        evicted.set(0);
+        expired.set(0);
+        synchronized (this) {
+            mAddErrors.clear();
+            mRemoveErrors.clear();
+        }
+    }
+
+    private synchronized void increment(HashMap<Integer, Long> errors, int statusCode) {
+        Long count = errors.get(statusCode);
+        errors.put(statusCode, count == null ? 1 : count + 1);
+    }
+
+    private synchronized WritableMap createErrorMap(HashMap<Integer, Long> errors) {
+        WritableMap errorMap = Arguments.createMap();
+        for (Map.Entry<Integer, Long> entry : errors.entrySet()) {
+            errorMap.putDouble(String.valueOf(entry.getKey()), entry.getValue());
+        }
+        return errorMap;
+    }
+
+    private static WritableMap createHistogramMap(LatencyHistogram histogram) {
+        WritableMap histogramMap = Arguments.createMap();
+        long count = histogram.getCount();
+        histogramMap.putDouble("count", count);
+        histogramMap.putDouble("mean", count > 0 ? (double) histogram.getSum() / count : 0);
+        histogramMap.putDouble("p50", histogram.getPercentile(50));
+        histogramMap.putDouble("p90", histogram.getPercentile(90));
+        histogramMap.putDouble("p99", histogram.getPercentile(99));
+        histogramMap.putDouble("max", histogram.getMax());
+        return histogramMap;
+    }
+}
@@ -0,0 +1,97 @@
+package com.shobshop.react.geofence;
+
+/**
+ * Per-fence behaviour set from JS on top of the geometry in {@link GeofenceRecord}.
+ * Immutable; fences without options share {@link #DEFAULT}.
+ */
+public class GeofenceOptions {
+    public static final GeofenceOptions DEFAULT = new GeofenceOptions(0, 0);
+
+    // Report DWELL once the device has stayed inside this long instead of ENTER, 0 for off.
+    public final int loiteringDelay;
+    // Hold transitions this long and drop those reversed in the meantime, 0 for off.
+    public final int debounce;
+    // Fences with a lower priority are evicted first when the catalog is full.
+    public final int priority;
+    // Time the fence is dropped at, in epoch milliseconds, 0 for never.
+    public final long expiresAt;
+    // Lifetime the expiration was given as, counted from when the fence was first added;
+    // 0 when it was given as a time.
+    public final long expirationDuration;
+
+    public GeofenceOptions(int loiteringDelay, int debounce) {
+        this(loiteringDelay, debounce, 0, 0, 0);
+    }
+
+    public GeofenceOptions(int loiteringDelay, int debounce, int priority, long expiresAt, long expirationDuration) {
+        this.loiteringDelay = loiteringDelay;
+        this.debounce = debounce;
+        this.priority = priority;
+        this.expiresAt = expiresAt;
+        this.expirationDuration = expirationDuration;
+    }
+
+    public boolean isDwell() {
+        return loiteringDelay > 0;
+    }
+
+    public boolean expires() {
+        return expiresAt > 0;
+    }
+
+    /**
+     * Whether the options register the same with Play Services. Debounce and priority
+     * only matter natively.
+     */
+    public boolean isSameRegistration(GeofenceOptions other) {
+        return loiteringDelay == other.loiteringDelay && isSameExpiration(other);
+    }
+
+    /**
+     * Same registration, debounce and priority.
+     */
+    public boolean isSameConfig(GeofenceOptions other) {
+        return isSameRegistration(other) && debounce == other.debounce && priority == other.priority;
+    }
+
+    /**
+     * A duration given again is the same expiration, whenever it was given: it keeps
+     * counting from the first add.
+     */
+    public boolean isSameExpiration(GeofenceOptions other) {
+        if (expirationDuration > 0 || other.expirationDuration > 0) {
+            return expirationDuration == other.expirationDuration;
+        }
+        return expiresAt == other.expiresAt;
+    }
+
+    /**
+     * These options expiring at the given time.
+     */
+    public GeofenceOptions withExpiresAt(long expiresAt) {
+        return new GeofenceOptions(loiteringDelay, debounce, priority, expiresAt, expirationDuration);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof GeofenceOptions)) return false;
+        GeofenceOptions other = (GeofenceOptions) o;
+        return isSameConfig(other) && expiresAt == other.expiresAt;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 31 * loiteringDelay + debounce;
+        result = 31 * result + priority;
+        result = 31 * result + (int) (expiresAt ^ (expiresAt >>> 32));
+        return 31 * result + (int) (expirationDuration ^ (expirationDuration >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "GeofenceOptions{loiteringDelay=" + loiteringDelay + ", debounce=" + debounce
+                + ", priority=" + priority + ", expiresAt=" + expiresAt
+                + (expirationDuration > 0 ? ", expirationDuration=" + expirationDuration : "") + "}";
+    }
+}
@@ -0,0 +1,158 @@
+package com.shobshop.react.geofence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Plain description of a geofence as it was added from JS. Kept free of Android and
+ * Play Services types so the catalog can index and compare fences without building a
+ * {@link com.google.android.gms.location.Geofence} for each one. For a polygon or
+ * corridor the circle is the one enclosing the shape, and the shape is registered as
+ * its covering {@link #parts}.
+ */
+public class GeofenceRecord {
+    public final String identifier;
+    public final double latitude;
+    public final double longitude;
+    public final float radius;
+    // Fences grouped under this one when it is a cluster parent, null for a plain fence.
+    public final List<GeofenceRecord> children;
+    public final GeofenceOptions options;
+    // Polygon or corridor this record stands for, null for a circle.
+    public final GeofenceShape shape;
+    // Circles registered with Play Services in place of the shape, null for a circle.
+    public final List<GeofenceRecord> parts;
+    // Tag given by JS for bulk operations, null when none. Not registered with Play Services.
+    public final String group;
+
+    public GeofenceRecord(String identifier, double latitude, double longitude, float radius) {
+        this(identifier, latitude, longitude, radius, null, GeofenceOptions.DEFAULT);
+    }
+
+    public GeofenceRecord(String identifier, double latitude, double longitude, float radius,
+                          List<GeofenceRecord> children) {
+        this(identifier, latitude, longitude, radius, children, GeofenceOptions.DEFAULT);
+    }
+
+    public GeofenceRecord(String identifier, double latitude, double longitude, float radius,
+                          List<GeofenceRecord> children, GeofenceOptions options) {
+        this(identifier, latitude, longitude, radius, children, options, null);
+    }
+
+    public GeofenceRecord(String identifier, double latitude, double longitude, float radius,
+                          List<GeofenceRecord> children, GeofenceOptions options, String group) {
+        this(identifier, latitude, longitude, radius, children, options, group, null);
+    }
+
+    private GeofenceRecord(String identifier, double latitude, double longitude, float radius,
+                           List<GeofenceRecord> children, GeofenceOptions options, String group,
+                           GeofenceShape shape) {
+        this(identifier, latitude, longitude, radius, children, options, group, shape,
+                shape != null ? createParts(identifier, shape) : null);
+    }
+
+    private GeofenceRecord(String identifier, double latitude, double longitude, float radius,
+                           List<GeofenceRecord> children, GeofenceOptions options, String group,
+                           GeofenceShape shape, List<GeofenceRecord> parts) {
+        this.identifier = identifier;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.radius = radius;
+        this.children = children;
+        this.options = options;
+        this.shape = shape;
+        this.group = group;
+        this.parts = parts;
+    }
+
+    public static GeofenceRecord createShape(String identifier, GeofenceShape shape, GeofenceOptions options) {
+        return createShape(identifier, shape, options, null);
+    }
+
+    public static GeofenceRecord createShape(String identifier, GeofenceShape shape, GeofenceOptions options,
+                                             String group) {
+        double[] enclosing = shape.enclosingCircle();
+        return new GeofenceRecord(identifier, enclosing[0], enclosing[1], (float) Math.ceil(enclosing[2]),
+                null, options, group, shape);
+    }
+
+    /**
+     * This record with other options, sharing the geometry and parts.
+     */
+    public GeofenceRecord withOptions(GeofenceOptions options) {
+        return new GeofenceRecord(identifier, latitude, longitude, radius, children, options, group, shape, parts);
+    }
+
+    public boolean isCluster() {
+        return children != null;
+    }
+
+    /**
+     * Number of Play Services fences this record takes when registered.
+     */
+    public int slotCount() {
+        return parts != null ? parts.size() : 1;
+    }
+
+    /**
+     * Identifiers this record is registered under with Play Services.
+     */
+    public List<String> registeredIds() {
+        if (parts == null) return Collections.singletonList(identifier);
+        ArrayList<String> identifiers = new ArrayList<>(parts.size());
+        for (GeofenceRecord part : parts) identifiers.add(part.identifier);
+        return identifiers;
+    }
+
+    /**
+     * Whether the given point lies within the fence circle, or within the shape.
+     */
+    public boolean contains(double latitude, double longitude) {
+        if (shape != null) return shape.contains(latitude, longitude);
+        return GeoMath.distanceMeters(latitude, longitude, this.latitude, this.longitude) <= radius;
+    }
+
+    public boolean hasSameGeometry(GeofenceRecord other) {
+        return other != null
+                && latitude == other.latitude
+                && longitude == other.longitude
+                && radius == other.radius
+                && (shape == null ? other.shape == null : shape.equals(other.shape));
+    }
+
+    /**
+     * Whether registering the other record would change nothing: same geometry and
+     * registered options.
+     */
+    public boolean isSameRegistration(GeofenceRecord other) {
+        return hasSameGeometry(other) && options.isSameRegistration(other.options);
+    }
+
+    /**
+     * Same geometry, options and group.
+     */
+    public boolean isSameFence(GeofenceRecord other) {
+        return hasSameGeometry(other) && options.isSameConfig(other.options)
+                && (group == null ? other.group == null : group.equals(other.group));
+    }
+
+    @Override
+    public String toString() {
+        return "GeofenceRecord{" + identifier + " " + latitude + "," + longitude + " r=" + radius
+                + (children != null ? " children=" + children.size() : "")
+                + (shape != null ? " " + shape + " parts=" + parts.size() : "")
+                + (options != GeofenceOptions.DEFAULT ? " " + options : "")
+                + (group != null ? " group=" + group : "") + "}";
+    }
+
+    private static List<GeofenceRecord> createParts(String identifier, GeofenceShape shape) {
+        double[] circles = shape.cover();
+        ArrayList<GeofenceRecord> parts = new ArrayList<>(circles.length / 3);
+        for (int i = 0; i < circles.length; i += 3) {
+            parts.add(new GeofenceRecord(GeofenceShape.partId(identifier, i / 3),
+                    circles[i], circles[i + 1], (float) Math.ceil(circles[i + 2])));
+        }
+        return parts;
+    }
+}
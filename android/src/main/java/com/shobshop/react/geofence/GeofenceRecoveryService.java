@@ -0,0 +1,194 @@
+package com.shobshop.react.geofence;
+
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.location.LocationManager;
+import android.os.Build;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.util.Log;
+
+import com.facebook.react.ReactApplication;
+import com.facebook.react.ReactInstanceManager;
+import com.facebook.react.ReactNativeHost;
+import com.facebook.react.bridge.ReactContext;
+import com.facebook.react.bridge.UiThreadUtil;
+
+/**
+ * Background worker that registers the stored fences again after a reboot or after
+ * location came back, for {@link DeviceBootCompleteReceiver}. The receiver only sets an
+ * alarm; each broadcast pushes it back, so a burst of them is handled by one pass once it
+ * settles, and the receiver does not hold the process for the seconds re-registering can
+ * take.
+ */
+public class GeofenceRecoveryService extends IntentService {
+    private static final String TAG = "RNGeofenceRecovery";
+    // Broadcasts closer together than this are handled by one recovery pass. Toggling
+    // location sends MODE_CHANGED and PROVIDERS_CHANGED together, several times a second.
+    static final long RECOVERY_WINDOW_MS = 3000;
+    // A pass Play Services refused is retried with a delay that doubles each time. JS is
+    // started to add the fences itself once the retries run out.
+    static final long MIN_RETRY_DELAY_MS = 30 * 1000;
+    static final int MAX_RETRIES = 5;
+    private static final String EXTRA_BOOTED = "booted";
+    private static final String EXTRA_RETRY = "retry";
+
+    private static final Object sLock = new Object();
+    // Broadcasts arrived since the last pass, and whether one was a boot.
+    private static boolean sRequested;
+    private static boolean sBooted;
+
+    public GeofenceRecoveryService() {
+        super("GeofenceRecoveryService");
+    }
+
+    /**
+     * Have a recovery pass run once no broadcast arrived for a window. Replaces the alarm
+     * of a pass still waiting.
+     */
+    public static void request(Context context, boolean booted) {
+        context = context.getApplicationContext();
+        synchronized (sLock) {
+            if (sRequested) {
+                // The pass already waiting picks this one up.
+                GeofenceMetrics.getInstance().broadcastsMerged.incrementAndGet();
+            }
+            sRequested = true;
+            sBooted |= booted;
+            booted = sBooted;
+        }
+        schedule(context, booted, 0, RECOVERY_WINDOW_MS);
+    }
+
+    private static void schedule(Context context, boolean booted, int retry, long delay) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        // Carries any boot since the last pass as well, in case the process is killed
+        // before the alarm. The extras replace those of the alarm still waiting.
+        PendingIntent pendingIntent = PendingIntent.getService(context, 3,
+                new Intent(context, GeofenceRecoveryService.class)
+                        .putExtra(EXTRA_BOOTED, booted)
+                        .putExtra(EXTRA_RETRY, retry),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        long deadline = SystemClock.elapsedRealtime() + delay;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            alarmManager.setAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP, deadline, pendingIntent);
+        } else {
+            alarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, deadline, pendingIntent);
+        }
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        boolean booted = intent != null && intent.getBooleanExtra(EXTRA_BOOTED, false);
+        int retry = intent != null ? intent.getIntExtra(EXTRA_RETRY, 0) : 0;
+        synchronized (sLock) {
+            booted |= sBooted;
+            sRequested = false;
+            sBooted = false;
+        }
+        recover(booted, retry);
+    }
+
+    /**
+     * Play Services drops every geofence on reboot and when network location is turned
+     * off. Re-register them from the native registry without starting React, unless the
+     * registration is known to be intact.
+     */
+    private void recover(boolean booted, int retry) {
+        GeofenceSettings settings = new GeofenceSettings(this);
+        long bootTime = getBootTime();
+        if (!isLocationUsable()) {
+            // Registering would fail; the broadcast for location coming back recovers.
+            Log.i(TAG, "Location is off, recover once it is back");
+            settings.setRegistrationLost();
+            return;
+        }
+        if (!booted && settings.isRegistrationValid(bootTime)) {
+            Log.i(TAG, "Geofences are still registered, skip recovery");
+            GeofenceMetrics.getInstance().recoveriesSkipped.incrementAndGet();
+            return;
+        }
+        int registered = GeofenceRegistrar.reregister(this);
+        if (registered < 0) {
+            settings.setRegistrationLost();
+            if (retry < MAX_RETRIES) {
+                long delay = MIN_RETRY_DELAY_MS << retry;
+                Log.w(TAG, "Re-registering failed, retry in " + delay + "ms");
+                // A broadcast in the meantime replaces the retry with a pass of its own.
+                schedule(getApplicationContext(), booted, retry + 1, delay);
+                return;
+            }
+            Log.e(TAG, "Re-registering failed " + (retry + 1) + " times, leave it to JS");
+        } else {
+            settings.setRegistrationValid(bootTime);
+        }
+        // Nothing stored natively (e.g. fences added by an older version), or Play Services
+        // keeps refusing them: fall back to starting React so that JS can add them again.
+        notifyReact(getApplicationContext(), registered <= 0);
+    }
+
+    /**
+     * Wall clock time of the last boot, to tell whether the device rebooted since the
+     * fences were registered.
+     */
+    private static long getBootTime() {
+        return System.currentTimeMillis() - SystemClock.elapsedRealtime();
+    }
+
+    private static void notifyReact(final Context context, final boolean startReact) {
+        Runnable myRunnable = new Runnable() {
+            @Override
+            public void run() {
+                ReactApplication reactApplication = ((ReactApplication) context.getApplicationContext());
+                ReactNativeHost mReactNativeHost = reactApplication.getReactNativeHost();
+                final ReactInstanceManager reactInstanceManager = mReactNativeHost.getReactInstanceManager();
+                ReactContext reactContext = reactInstanceManager.getCurrentReactContext();
+
+                if (reactContext == null) {
+                    if (!startReact) return;
+                    reactInstanceManager
+                            .addReactInstanceEventListener(new ReactInstanceManager.ReactInstanceEventListener() {
+                                @Override
+                                public void onReactContextInitialized(ReactContext reactContext) {
+                                    // Send onDeviceBootCompleted event to RN
+                                    RNGeofencePackage.emitMessageToRN(reactContext, RNGeofenceModule.DEVICE_BOOT_COMPLETED, null);
+                                    reactInstanceManager.removeReactInstanceEventListener(this);
+                                }
+                            });
+                    if (!reactInstanceManager.hasStartedCreatingInitialContext()) {
+                        reactInstanceManager.createReactContextInBackground();
+                    }
+                } else {
+                    // Send onDeviceBootCompleted event to RN
+                    RNGeofencePackage.emitMessageToRN(reactContext, RNGeofenceModule.DEVICE_BOOT_COMPLETED, null);
+                }
+            }
+        };
+
+        UiThreadUtil.runOnUiThread(myRunnable);
+    }
+
+    // Snippets from https://stackoverflow.com/questions/29671039/geofences-not-working-when-app-is-killed/30773062#30773062
+    // Geofencing needs network location, which GPS only mode turns off as well.
+    private boolean isLocationUsable() {
+        if (Build.VERSION.SDK_INT >= 19) {
+            int mode = getLocationMode();
+            return mode != Settings.Secure.LOCATION_MODE_OFF && mode != Settings.Secure.LOCATION_MODE_SENSORS_ONLY;
+        }
+        LocationManager lm = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
+        return lm.isProviderEnabled(LocationManager.NETWORK_PROVIDER);
+    }
+
+    private int getLocationMode() {
+        try {
+            return Settings.Secure.getInt(getContentResolver(), Settings.Secure.LOCATION_MODE);
+        } catch (Settings.SettingNotFoundException e) {
+            e.printStackTrace();
+        }
+
+        return 0;
+    }
+}
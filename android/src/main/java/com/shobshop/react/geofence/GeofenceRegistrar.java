@@ -0,0 +1,138 @@
+package com.shobshop.react.geofence;
+
+import android.content.Context;
+import android.location.Location;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Recovery work for callers that are allowed to block: the IntentService worker and
+ * the boot receiver's background work. Neither needs React. The work itself runs on the
+ * {@link GeofenceCommandQueue} thread so it cannot interleave with commands from JS.
+ */
+public class GeofenceRegistrar {
+    private static final String TAG = "RNGeofenceRegistrar";
+    // Long enough for a location read plus a remove and an add.
+    private static final long WAIT_TIMEOUT_SECONDS = 40;
+
+    private GeofenceRegistrar() {
+    }
+
+    /**
+     * The device left the area around the currently registered fences. Swap in the fences
+     * closest to where it is now. Blocks until done.
+     */
+    public static void rotate(final Context context, @Nullable final Location location) {
+        final GeofenceCommandQueue queue = GeofenceCommandQueue.getInstance(context);
+        queue.runAndWait(new Callable<Void>() {
+            @Override
+            public Void call() {
+                GeofenceCatalog catalog = GeofenceCatalog.getInstance(context);
+                if (location == null || !catalog.needsRotation()) {
+                    Log.w(TAG, "Skip active set rotation, location = " + location + ", catalog size = " + catalog.size());
+                    return null;
+                }
+                ActiveSetPlan plan = catalog.plan(location.getLatitude(), location.getLongitude());
+                Log.i(TAG, "Rotate active set around " + location + ": " + plan);
+                if (!plan.isEmpty()) {
+                    queue.applyBlocking(catalog, plan);
+                }
+                return null;
+            }
+        }, WAIT_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * Register the active set again where it is, for a registration setting such as the
+     * notification responsiveness to apply to it. Blocks until done.
+     */
+    public static void refresh(final Context context) {
+        final GeofenceCommandQueue queue = GeofenceCommandQueue.getInstance(context);
+        queue.runAndWait(new Callable<Void>() {
+            @Override
+            public Void call() {
+                GeofenceCatalog catalog = GeofenceCatalog.getInstance(context);
+                double latitude = catalog.getOriginLatitude();
+                double longitude = catalog.getOriginLongitude();
+                if (catalog.size() == 0 || Double.isNaN(latitude) || Double.isNaN(longitude)) {
+                    // Nothing was planned yet; the first plan uses the new setting anyway.
+                    return null;
+                }
+                catalog.markActiveDirty();
+                ActiveSetPlan plan = catalog.plan(latitude, longitude);
+                boolean success = queue.applyBlocking(catalog, plan);
+                Log.i(TAG, "Refreshed " + plan.addRecords.size() + " geofences, success = " + success);
+                return null;
+            }
+        }, WAIT_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * Plan the active set again where it is, for the catalog to drop the fences that no
+     * longer fit its maximum. Blocks until done.
+     */
+    public static void replan(final Context context) {
+        final GeofenceCommandQueue queue = GeofenceCommandQueue.getInstance(context);
+        queue.runAndWait(new Callable<Void>() {
+            @Override
+            public Void call() {
+                GeofenceCatalog catalog = GeofenceCatalog.getInstance(context);
+                double latitude = catalog.getOriginLatitude();
+                double longitude = catalog.getOriginLongitude();
+                if (catalog.size() == 0 || Double.isNaN(latitude) || Double.isNaN(longitude)) {
+                    // Nothing was planned yet; the first plan evicts anyway.
+                    return null;
+                }
+                ActiveSetPlan plan = catalog.plan(latitude, longitude);
+                if (!plan.isEmpty()) {
+                    queue.applyBlocking(catalog, plan);
+                }
+                Log.i(TAG, "Replanned, catalog size = " + catalog.size() + ": " + plan);
+                return null;
+            }
+        }, WAIT_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * Play Services dropped every fence (reboot, location turned off). Register the
+     * active set again straight from the stored catalog. Blocks until done and returns
+     * the number of fences registered, or -1 on failure.
+     */
+    public static int reregister(final Context context) {
+        final GeofenceCommandQueue queue = GeofenceCommandQueue.getInstance(context);
+        Integer registered = queue.runAndWait(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                long start = SystemClock.elapsedRealtime();
+                GeofenceCatalog catalog = GeofenceCatalog.getInstance(context);
+                if (catalog.size() == 0) {
+                    return 0;
+                }
+                catalog.resetActive();
+                double latitude = catalog.getOriginLatitude();
+                double longitude = catalog.getOriginLongitude();
+                if (catalog.needsRotation()) {
+                    Location location = queue.getLastLocation();
+                    if (location != null) {
+                        latitude = location.getLatitude();
+                        longitude = location.getLongitude();
+                    }
+                }
+                if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+                    latitude = 0;
+                    longitude = 0;
+                }
+                ActiveSetPlan plan = catalog.plan(latitude, longitude);
+                boolean success = queue.applyBlocking(catalog, plan);
+                GeofenceMetrics.getInstance().recoveryLatency.record(SystemClock.elapsedRealtime() - start);
+                Log.i(TAG, "Re-registered " + plan.addRecords.size() + " of " + catalog.size() + " geofences in "
+                        + (SystemClock.elapsedRealtime() - start) + "ms, success = " + success);
+                return success ? plan.addRecords.size() : -1;
+            }
+        }, WAIT_TIMEOUT_SECONDS);
+        return registered != null ? registered : -1;
+    }
+}
@@ -0,0 +1,348 @@
+package com.shobshop.react.geofence;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-disk copy of the {@link GeofenceCatalog}, so that a fresh process (the IntentService,
+ * the boot receiver) knows every fence without JS re-sending them. The file is an
+ * append-only log of catalog changes; each catalog call appends only what it changed.
+ * The log is rewritten as a snapshot once it has grown well past the live data.
+ */
+public class GeofenceRegistry {
+    private static final String TAG = "RNGeofenceRegistry";
+    private static final int MAGIC = 0x52474635; // "RGF5"
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_ACTIVE = 3;
+    private static final byte OP_CHILD_STATE = 4;
+    private static final byte OP_TRIGGERED = 5;
+
+    // Rewrite once the log holds this many more operations than live records.
+    private static final int COMPACT_SLACK = 512;
+
+    private final File mFile;
+    private final ByteArrayOutputStream mBuffer = new ByteArrayOutputStream();
+    private final DataOutputStream mPending = new DataOutputStream(mBuffer);
+    private int mOperationCount;
+    private int mPendingOperations;
+
+    public GeofenceRegistry(File file) {
+        mFile = file;
+    }
+
+    /**
+     * State recovered by replaying the log.
+     */
+    public static class Snapshot {
+        public final LinkedHashMap<String, GeofenceRecord> records = new LinkedHashMap<>();
+        public final HashSet<String> activeIds = new HashSet<>();
+        public final HashSet<String> dirtyIds = new HashSet<>();
+        public final HashSet<String> insideChildren = new HashSet<>();
+        // When each fence was last triggered, or added when it never was.
+        public final HashMap<String, Long> triggeredAt = new HashMap<>();
+        public boolean boundaryActive;
+        public double originLatitude = Double.NaN;
+        public double originLongitude = Double.NaN;
+    }
+
+    public Snapshot load() {
+        Snapshot snapshot = new Snapshot();
+        mOperationCount = 0;
+        if (!mFile.exists()) return snapshot;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != MAGIC) {
+                Log.w(TAG, "Unknown registry format, starting empty");
+                return snapshot;
+            }
+            while (true) {
+                byte op = in.readByte();
+                switch (op) {
+                    case OP_PUT:
+                        GeofenceRecord record = readRecord(in);
+                        snapshot.records.put(record.identifier, record);
+                        break;
+                    case OP_REMOVE:
+                        snapshot.records.remove(in.readUTF());
+                        break;
+                    case OP_ACTIVE:
+                        readActive(in, snapshot);
+                        break;
+                    case OP_CHILD_STATE:
+                        String childId = in.readUTF();
+                        if (in.readBoolean()) snapshot.insideChildren.add(childId);
+                        else snapshot.insideChildren.remove(childId);
+                        break;
+                    case OP_TRIGGERED:
+                        long time = in.readLong();
+                        for (int i = in.readInt(); i > 0; i--) snapshot.triggeredAt.put(in.readUTF(), time);
+                        break;
+                    default:
+                        throw new IOException("Unknown registry operation " + op);
+                }
+                mOperationCount++;
+            }
+        } catch (EOFException e) {
+            // End of log. An operation cut short by the process dying is dropped here.
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot read registry, keeping what was read so far", e);
+        } finally {
+            TransitionQueue.closeQuietly(in);
+        }
+        return snapshot;
+    }
+
+    public void put(GeofenceRecord record) {
+        try {
+            mPending.writeByte(OP_PUT);
+            writeRecord(mPending, record);
+            mPendingOperations++;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void remove(String identifier) {
+        try {
+            mPending.writeByte(OP_REMOVE);
+            mPending.writeUTF(identifier);
+            mPendingOperations++;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void clear() {
+        // Everything before a clear is dead, start the file over.
+        mBuffer.reset();
+        mPendingOperations = 0;
+        if (mFile.exists() && !mFile.delete()) {
+            Log.w(TAG, "Cannot delete registry");
+        }
+        mOperationCount = 0;
+    }
+
+    public void setActive(Collection<String> activeIds, Collection<String> dirtyIds, boolean boundaryActive,
+                          double originLatitude, double originLongitude) {
+        try {
+            writeActive(mPending, activeIds, dirtyIds, boundaryActive, originLatitude, originLongitude);
+            mPendingOperations++;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void setChildState(String childId, boolean inside) {
+        try {
+            mPending.writeByte(OP_CHILD_STATE);
+            mPending.writeUTF(childId);
+            mPending.writeBoolean(inside);
+            mPendingOperations++;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void setTriggered(Collection<String> identifiers, long time) {
+        try {
+            writeTriggered(mPending, identifiers, time);
+            mPendingOperations++;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Append the operations recorded since the last flush in one write.
+     */
+    public void flush() {
+        if (mBuffer.size() == 0) return;
+        boolean newFile = !mFile.exists();
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(mFile, true);
+            if (newFile) {
+                new DataOutputStream(out).writeInt(MAGIC);
+            }
+            mBuffer.writeTo(out);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot write registry", e);
+        } finally {
+            TransitionQueue.closeQuietly(out);
+        }
+        mBuffer.reset();
+        mOperationCount += mPendingOperations;
+        mPendingOperations = 0;
+    }
+
+    public boolean needsCompaction(int liveRecords) {
+        return mOperationCount > 2 * liveRecords + COMPACT_SLACK;
+    }
+
+    /**
+     * Replace the log with a snapshot of the given state.
+     */
+    public void compact(Collection<GeofenceRecord> records, Collection<String> activeIds, Collection<String> dirtyIds,
+                        boolean boundaryActive, double originLatitude, double originLongitude,
+                        Collection<String> insideChildren, Map<String, Long> triggeredAt) {
+        File tmp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            for (GeofenceRecord record : records) {
+                out.writeByte(OP_PUT);
+                writeRecord(out, record);
+            }
+            writeActive(out, activeIds, dirtyIds, boundaryActive, originLatitude, originLongitude);
+            for (String childId : insideChildren) {
+                out.writeByte(OP_CHILD_STATE);
+                out.writeUTF(childId);
+                out.writeBoolean(true);
+            }
+            for (Map.Entry<String, Long> entry : triggeredAt.entrySet()) {
+                writeTriggered(out, Collections.singletonList(entry.getKey()), entry.getValue());
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(mFile)) {
+                throw new IOException("Cannot replace " + mFile);
+            }
+            mBuffer.reset();
+            mPendingOperations = 0;
+            mOperationCount = records.size() + 1 + insideChildren.size() + triggeredAt.size();
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot compact registry", e);
+        } finally {
+            TransitionQueue.closeQuietly(out);
+        }
+    }
+
+    private static void writeActive(DataOutputStream out, Collection<String> activeIds, Collection<String> dirtyIds,
+                                    boolean boundaryActive, double originLatitude, double originLongitude)
+            throws IOException {
+        out.writeByte(OP_ACTIVE);
+        out.writeDouble(originLatitude);
+        out.writeDouble(originLongitude);
+        out.writeBoolean(boundaryActive);
+        out.writeInt(activeIds.size());
+        for (String identifier : activeIds) out.writeUTF(identifier);
+        out.writeInt(dirtyIds.size());
+        for (String identifier : dirtyIds) out.writeUTF(identifier);
+    }
+
+    private static void writeTriggered(DataOutputStream out, Collection<String> identifiers, long time)
+            throws IOException {
+        out.writeByte(OP_TRIGGERED);
+        out.writeLong(time);
+        out.writeInt(identifiers.size());
+        for (String identifier : identifiers) out.writeUTF(identifier);
+    }
+
+    private static void readActive(DataInputStream in, Snapshot snapshot) throws IOException {
+        snapshot.originLatitude = in.readDouble();
+        snapshot.originLongitude = in.readDouble();
+        snapshot.boundaryActive = in.readBoolean();
+        snapshot.activeIds.clear();
+        for (int i = in.readInt(); i > 0; i--) snapshot.activeIds.add(in.readUTF());
+        snapshot.dirtyIds.clear();
+        for (int i = in.readInt(); i > 0; i--) snapshot.dirtyIds.add(in.readUTF());
+    }
+
+    private static void writeRecord(DataOutputStream out, GeofenceRecord record) throws IOException {
+        out.writeUTF(record.identifier);
+        out.writeDouble(record.latitude);
+        out.writeDouble(record.longitude);
+        out.writeFloat(record.radius);
+        out.writeInt(record.options.loiteringDelay);
+        out.writeInt(record.options.debounce);
+        out.writeInt(record.options.priority);
+        out.writeLong(record.options.expiresAt);
+        out.writeLong(record.options.expirationDuration);
+        GeofenceShape shape = record.shape;
+        out.writeByte(shape != null ? shape.type : 0);
+        if (shape != null) {
+            out.writeFloat(shape.width);
+            out.writeFloat(shape.coverRadius);
+            out.writeInt(shape.latitudes.length);
+            for (int i = 0; i < shape.latitudes.length; i++) {
+                out.writeDouble(shape.latitudes[i]);
+                out.writeDouble(shape.longitudes[i]);
+            }
+        }
+        out.writeUTF(record.group != null ? record.group : "");
+        if (record.children == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(record.children.size());
+            for (GeofenceRecord child : record.children) writeRecord(out, child);
+        }
+    }
+
+    private static GeofenceRecord readRecord(DataInputStream in) throws IOException {
+        String identifier = in.readUTF();
+        double latitude = in.readDouble();
+        double longitude = in.readDouble();
+        float radius = in.readFloat();
+        GeofenceOptions options = GeofenceOptions.DEFAULT;
+        int loiteringDelay = in.readInt();
+        int debounce = in.readInt();
+        int priority = in.readInt();
+        long expiresAt = in.readLong();
+        long expirationDuration = in.readLong();
+        if (loiteringDelay != 0 || debounce != 0 || priority != 0 || expiresAt != 0) {
+            options = new GeofenceOptions(loiteringDelay, debounce, priority, expiresAt, expirationDuration);
+        }
+        GeofenceShape shape = null;
+        int shapeType = in.readByte();
+        if (shapeType != 0) {
+            float width = in.readFloat();
+            float coverRadius = in.readFloat();
+            int vertexCount = in.readInt();
+            double[] latitudes = new double[vertexCount];
+            double[] longitudes = new double[vertexCount];
+            for (int i = 0; i < vertexCount; i++) {
+                latitudes[i] = in.readDouble();
+                longitudes[i] = in.readDouble();
+            }
+            shape = shapeType == GeofenceShape.POLYGON
+                    ? GeofenceShape.polygon(latitudes, longitudes, coverRadius)
+                    : GeofenceShape.corridor(latitudes, longitudes, width, coverRadius);
+        }
+        String group = in.readUTF();
+        if (group.isEmpty()) group = null;
+        int childCount = in.readInt();
+        List<GeofenceRecord> children = null;
+        if (childCount >= 0) {
+            children = new ArrayList<>(childCount);
+            for (int i = 0; i < childCount; i++) children.add(readRecord(in));
+        }
+        if (shape != null) {
+            // The enclosing circle and parts are derived from the shape again.
+            return GeofenceRecord.createShape(identifier, shape, options, group);
+        }
+        return new GeofenceRecord(identifier, latitude, longitude, radius, children, options, group);
+    }
+}
@@ -0,0 +1,214 @@
+package com.shobshop.react.geofence;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Options set from JS that also have to be honoured by the IntentService and the boot
+ * receiver, which may run in a fresh process before JS has started. Backed by
+ * SharedPreferences.
+ */
+public class GeofenceSettings {
+    private static final String PREFS_NAME = "RNGeofence";
+    private static final String KEY_BATCH_EVENTS = "batchEvents";
+    private static final String KEY_BATCH_WINDOW_MS = "batchWindowMs";
+    private static final String KEY_WAKE_ON_TRANSITION = "wakeOnTransition";
+    private static final String KEY_OUTBOX_URL = "outboxUrl";
+    private static final String KEY_OUTBOX_HEADERS = "outboxHeaders";
+    private static final String KEY_OUTBOX_BATCH_SIZE = "outboxBatchSize";
+    private static final String KEY_OUTBOX_FLUSH_INTERVAL_MS = "outboxFlushIntervalMs";
+    private static final String KEY_ADAPTIVE_RESPONSIVENESS = "adaptiveResponsiveness";
+    private static final String KEY_RESPONSIVENESS_LEVELS = "responsivenessLevels";
+    private static final String KEY_RESPONSIVENESS_MIN_INTERVAL_MS = "responsivenessMinIntervalMs";
+    private static final String KEY_RESPONSIVENESS_MS = "responsivenessMs";
+    private static final String KEY_RESPONSIVENESS_CHANGED_AT = "responsivenessChangedAt";
+    private static final String KEY_REGISTERED_BOOT_TIME = "registeredBootTime";
+    private static final String KEY_REGISTRATION_LOST = "registrationLost";
+    private static final String KEY_MAX_GEOFENCES = "maxGeofences";
+
+    // Boot times computed from the wall clock drift by this much within one boot.
+    private static final long BOOT_TIME_TOLERANCE_MS = 60 * 1000;
+
+    static final long DEFAULT_BATCH_WINDOW_MS = 500;
+    static final int DEFAULT_OUTBOX_BATCH_SIZE = 50;
+    static final long DEFAULT_OUTBOX_FLUSH_INTERVAL_MS = 60 * 1000;
+
+    private final SharedPreferences mPreferences;
+
+    public GeofenceSettings(Context context) {
+        mPreferences = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public boolean isEventBatchingEnabled() {
+        return mPreferences.getBoolean(KEY_BATCH_EVENTS, false);
+    }
+
+    public long getBatchWindowMs() {
+        return mPreferences.getLong(KEY_BATCH_WINDOW_MS, DEFAULT_BATCH_WINDOW_MS);
+    }
+
+    public void setEventBatching(boolean enabled, long windowMs) {
+        mPreferences.edit()
+                .putBoolean(KEY_BATCH_EVENTS, enabled)
+                .putLong(KEY_BATCH_WINDOW_MS, windowMs)
+                .apply();
+    }
+
+    /**
+     * Whether a transition arriving while React is not running should start it. When
+     * off, transitions wait in the {@link TransitionQueue} until JS asks for them.
+     */
+    public boolean isWakeOnTransitionEnabled() {
+        return mPreferences.getBoolean(KEY_WAKE_ON_TRANSITION, true);
+    }
+
+    public void setWakeOnTransition(boolean enabled) {
+        mPreferences.edit()
+                .putBoolean(KEY_WAKE_ON_TRANSITION, enabled)
+                .apply();
+    }
+
+    /**
+     * Endpoint the {@link TransitionOutbox} posts to, null when transitions are not sent
+     * natively.
+     */
+    public String getOutboxUrl() {
+        return mPreferences.getString(KEY_OUTBOX_URL, null);
+    }
+
+    /**
+     * Extra request headers, such as authorization.
+     */
+    public Map<String, String> getOutboxHeaders() {
+        LinkedHashMap<String, String> headers = new LinkedHashMap<>();
+        String encoded = mPreferences.getString(KEY_OUTBOX_HEADERS, "");
+        if (encoded.isEmpty()) return headers;
+        // Name and value on alternate lines: neither can hold a line break.
+        String[] lines = encoded.split("\n", -1);
+        for (int i = 0; i + 1 < lines.length; i += 2) {
+            headers.put(lines[i], lines[i + 1]);
+        }
+        return headers;
+    }
+
+    public int getOutboxBatchSize() {
+        return mPreferences.getInt(KEY_OUTBOX_BATCH_SIZE, DEFAULT_OUTBOX_BATCH_SIZE);
+    }
+
+    public long getOutboxFlushIntervalMs() {
+        return mPreferences.getLong(KEY_OUTBOX_FLUSH_INTERVAL_MS, DEFAULT_OUTBOX_FLUSH_INTERVAL_MS);
+    }
+
+    public void setOutbox(String url, Map<String, String> headers, int batchSize, long flushIntervalMs) {
+        StringBuilder encoded = new StringBuilder();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (encoded.length() > 0) encoded.append('\n');
+            encoded.append(header.getKey()).append('\n').append(header.getValue());
+        }
+        mPreferences.edit()
+                .putString(KEY_OUTBOX_URL, url)
+                .putString(KEY_OUTBOX_HEADERS, encoded.toString())
+                .putInt(KEY_OUTBOX_BATCH_SIZE, batchSize)
+                .putLong(KEY_OUTBOX_FLUSH_INTERVAL_MS, flushIntervalMs)
+                .apply();
+    }
+
+    public boolean isAdaptiveResponsivenessEnabled() {
+        return mPreferences.getBoolean(KEY_ADAPTIVE_RESPONSIVENESS, false);
+    }
+
+    /**
+     * Levels sorted by speed, see {@link ResponsivenessAdapter}.
+     */
+    public List<ResponsivenessAdapter.Level> getResponsivenessLevels() {
+        String encoded = mPreferences.getString(KEY_RESPONSIVENESS_LEVELS, "");
+        if (encoded.isEmpty()) return ResponsivenessAdapter.DEFAULT_LEVELS;
+        ArrayList<ResponsivenessAdapter.Level> levels = new ArrayList<>();
+        for (String level : encoded.split(",")) {
+            String[] fields = level.split(":");
+            levels.add(new ResponsivenessAdapter.Level(Float.parseFloat(fields[0]), Integer.parseInt(fields[1])));
+        }
+        return levels;
+    }
+
+    public long getResponsivenessMinIntervalMs() {
+        return mPreferences.getLong(KEY_RESPONSIVENESS_MIN_INTERVAL_MS, ResponsivenessAdapter.DEFAULT_MIN_INTERVAL_MS);
+    }
+
+    public void setAdaptiveResponsiveness(boolean enabled, List<ResponsivenessAdapter.Level> levels, long minIntervalMs) {
+        StringBuilder encoded = new StringBuilder();
+        for (ResponsivenessAdapter.Level level : ResponsivenessAdapter.normalize(levels)) {
+            if (encoded.length() > 0) encoded.append(',');
+            encoded.append(level.minSpeed).append(':').append(level.responsivenessMs);
+        }
+        mPreferences.edit()
+                .putBoolean(KEY_ADAPTIVE_RESPONSIVENESS, enabled)
+                .putString(KEY_RESPONSIVENESS_LEVELS, encoded.toString())
+                .putLong(KEY_RESPONSIVENESS_MIN_INTERVAL_MS, minIntervalMs)
+                .apply();
+    }
+
+    /**
+     * Notification responsiveness the fences are registered with, 0 for the Play
+     * Services default.
+     */
+    public int getResponsivenessMs() {
+        return mPreferences.getInt(KEY_RESPONSIVENESS_MS, 0);
+    }
+
+    public long getResponsivenessChangedAt() {
+        return mPreferences.getLong(KEY_RESPONSIVENESS_CHANGED_AT, 0);
+    }
+
+    public void setResponsiveness(int responsivenessMs, long changedAt) {
+        mPreferences.edit()
+                .putInt(KEY_RESPONSIVENESS_MS, responsivenessMs)
+                .putLong(KEY_RESPONSIVENESS_CHANGED_AT, changedAt)
+                .apply();
+    }
+
+    /**
+     * Whether the fences registered during the boot that started at bootTime are still
+     * registered with Play Services, as far as we know.
+     */
+    public boolean isRegistrationValid(long bootTime) {
+        long registeredBootTime = mPreferences.getLong(KEY_REGISTERED_BOOT_TIME, 0);
+        return !mPreferences.getBoolean(KEY_REGISTRATION_LOST, true)
+                && registeredBootTime != 0
+                && Math.abs(bootTime - registeredBootTime) < BOOT_TIME_TOLERANCE_MS;
+    }
+
+    public void setRegistrationValid(long bootTime) {
+        mPreferences.edit()
+                .putLong(KEY_REGISTERED_BOOT_TIME, bootTime)
+                .putBoolean(KEY_REGISTRATION_LOST, false)
+                .apply();
+    }
+
+    /**
+     * Play Services dropped the fences, or will: the next recovery has to register them.
+     */
+    public void setRegistrationLost() {
+        mPreferences.edit()
+                .putBoolean(KEY_REGISTRATION_LOST, true)
+                .apply();
+    }
+
+    /**
+     * Fences the catalog keeps at most before evicting, 0 for no limit.
+     */
+    public int getMaxGeofences() {
+        return mPreferences.getInt(KEY_MAX_GEOFENCES, 0);
+    }
+
+    public void setMaxGeofences(int maxGeofences) {
+        mPreferences.edit()
+                .putInt(KEY_MAX_GEOFENCES, maxGeofences)
+                .apply();
+    }
+}
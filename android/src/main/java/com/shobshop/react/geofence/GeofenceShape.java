@@ -0,0 +1,321 @@
+package com.shobshop.react.geofence;
+
+import java.util.Arrays;
+
+/**
+ * Polygon or corridor (a path with a half-width) geofence. Play Services only knows
+ * circles, so a shape is registered as a few covering circles from {@link #cover()} and
+ * the triggering location is checked against the real shape with {@link #contains}.
+ * <p>
+ * Vertices are projected once onto a local plane in meters around the first vertex,
+ * which is accurate for shapes up to tens of kilometers across. Edges are bucketed into
+ * horizontal bands so a lookup only visits the edges crossing the band of the query
+ * point, and {@link #contains} allocates nothing.
+ */
+public final class GeofenceShape {
+    public static final int POLYGON = 1;
+    public static final int CORRIDOR = 2;
+
+    // Registered identifier of a covering circle is PART_PREFIX + index + ":" + identifier.
+    public static final String PART_PREFIX = "RNGeofence:SHAPE:";
+    // Keeps a shape from eating the whole Play Services quota.
+    static final int MAX_PARTS = 16;
+    static final float DEFAULT_COVER_RADIUS = 500;
+
+    public final int type;
+    public final double[] latitudes;
+    public final double[] longitudes;
+    // Corridor half-width in meters, 0 for a polygon.
+    public final float width;
+    // Preferred radius of the covering circles in meters.
+    public final float coverRadius;
+
+    private final double mOriginLatitude;
+    private final double mOriginLongitude;
+    private final double mMetersPerDegreeLongitude;
+    private final double[] mX;
+    private final double[] mY;
+    private final int mEdgeCount;
+    private final double mMinY;
+    private final double mBandHeight;
+    private final int mBandCount;
+    // Edge ids per band in CSR form: band b holds mBandEdges[mBandStart[b]..mBandStart[b + 1]).
+    private final int[] mBandStart;
+    private final int[] mBandEdges;
+
+    public static GeofenceShape polygon(double[] latitudes, double[] longitudes, float coverRadius) {
+        if (latitudes.length < 3) throw new IllegalArgumentException("A polygon needs at least 3 vertices");
+        return new GeofenceShape(POLYGON, latitudes, longitudes, 0, coverRadius);
+    }
+
+    public static GeofenceShape corridor(double[] latitudes, double[] longitudes, float width, float coverRadius) {
+        if (latitudes.length < 2) throw new IllegalArgumentException("A corridor needs at least 2 vertices");
+        if (width <= 0) throw new IllegalArgumentException("A corridor needs a positive width");
+        return new GeofenceShape(CORRIDOR, latitudes, longitudes, width, coverRadius);
+    }
+
+    private GeofenceShape(int type, double[] latitudes, double[] longitudes, float width, float coverRadius) {
+        if (latitudes.length != longitudes.length) {
+            throw new IllegalArgumentException("Latitude and longitude counts differ");
+        }
+        this.type = type;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.width = width;
+        this.coverRadius = coverRadius > 0 ? coverRadius : DEFAULT_COVER_RADIUS;
+
+        int n = latitudes.length;
+        mOriginLatitude = latitudes[0];
+        mOriginLongitude = longitudes[0];
+        mMetersPerDegreeLongitude = GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(mOriginLatitude));
+        mX = new double[n];
+        mY = new double[n];
+        double minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            mX[i] = projectX(longitudes[i]);
+            mY[i] = projectY(latitudes[i]);
+            minY = Math.min(minY, mY[i]);
+            maxY = Math.max(maxY, mY[i]);
+        }
+        // A polygon closes back to its first vertex, a corridor does not.
+        mEdgeCount = type == POLYGON ? n : n - 1;
+        // A corridor edge reaches width meters above and below its end points.
+        double reach = type == CORRIDOR ? width : 0;
+        mMinY = minY - reach;
+        mBandCount = Math.max(1, Math.min(4096, mEdgeCount / 2));
+        mBandHeight = Math.max(1e-6, (maxY + reach - mMinY) / mBandCount);
+
+        mBandStart = new int[mBandCount + 1];
+        for (int e = 0; e < mEdgeCount; e++) {
+            int from = band(edgeMinY(e) - reach), to = band(edgeMaxY(e) + reach);
+            for (int b = from; b <= to; b++) mBandStart[b + 1]++;
+        }
+        for (int b = 0; b < mBandCount; b++) mBandStart[b + 1] += mBandStart[b];
+        mBandEdges = new int[mBandStart[mBandCount]];
+        int[] fill = Arrays.copyOf(mBandStart, mBandCount);
+        for (int e = 0; e < mEdgeCount; e++) {
+            int from = band(edgeMinY(e) - reach), to = band(edgeMaxY(e) + reach);
+            for (int b = from; b <= to; b++) mBandEdges[fill[b]++] = e;
+        }
+    }
+
+    public static boolean isPart(String identifier) {
+        return identifier.startsWith(PART_PREFIX);
+    }
+
+    public static String partId(String identifier, int index) {
+        return PART_PREFIX + index + ":" + identifier;
+    }
+
+    /**
+     * Identifier of the shape a covering circle belongs to.
+     */
+    public static String shapeId(String partId) {
+        return partId.substring(partId.indexOf(':', PART_PREFIX.length()) + 1);
+    }
+
+    /**
+     * Whether the point lies inside the polygon (even-odd rule) or within the corridor.
+     */
+    public boolean contains(double latitude, double longitude) {
+        double x = projectX(longitude);
+        double y = projectY(latitude);
+        int b = (int) Math.floor((y - mMinY) / mBandHeight);
+        if (b < 0 || b >= mBandCount) return false;
+
+        int end = mBandStart[b + 1];
+        if (type == CORRIDOR) {
+            double widthSquared = (double) width * width;
+            for (int i = mBandStart[b]; i < end; i++) {
+                if (segmentDistanceSquared(mBandEdges[i], x, y) <= widthSquared) return true;
+            }
+            return false;
+        }
+        boolean inside = false;
+        for (int i = mBandStart[b]; i < end; i++) {
+            int e = mBandEdges[i];
+            int j = e + 1 == mX.length ? 0 : e + 1;
+            double yi = mY[e], yj = mY[j];
+            if ((yi > y) != (yj > y)
+                    && x < (mX[j] - mX[e]) * (y - yi) / (yj - yi) + mX[e]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Circles that together cover the shape, as {latitude, longitude, radius} triples.
+     * Circles are {@link #coverRadius} in size where possible; a shape that would need
+     * more than {@link #MAX_PARTS} of them is covered with larger ones instead.
+     */
+    public double[] cover() {
+        double radius = Math.max(coverRadius, type == CORRIDOR ? width * 1.5 : 0);
+        while (true) {
+            double[] circles = type == POLYGON ? coverPolygon(radius) : coverCorridor(radius);
+            if (circles != null) return circles;
+            radius *= 1.5;
+        }
+    }
+
+    /**
+     * Smallest circle around the shape centred on its bounding box, as
+     * {latitude, longitude, radius}. Used to place the shape in the spatial index.
+     */
+    public double[] enclosingCircle() {
+        double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < mX.length; i++) {
+            minX = Math.min(minX, mX[i]);
+            maxX = Math.max(maxX, mX[i]);
+            minY = Math.min(minY, mY[i]);
+            maxY = Math.max(maxY, mY[i]);
+        }
+        double cx = (minX + maxX) / 2, cy = (minY + maxY) / 2;
+        double radius = 0;
+        for (int i = 0; i < mX.length; i++) {
+            radius = Math.max(radius, Math.hypot(mX[i] - cx, mY[i] - cy));
+        }
+        return new double[]{unprojectY(cy), unprojectX(cx), radius + width};
+    }
+
+    private double[] coverPolygon(double radius) {
+        double[] enclosing = enclosingCircle();
+        if (enclosing[2] <= radius) return enclosing;
+
+        double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < mX.length; i++) {
+            minX = Math.min(minX, mX[i]);
+            maxX = Math.max(maxX, mX[i]);
+            minY = Math.min(minY, mY[i]);
+            maxY = Math.max(maxY, mY[i]);
+        }
+        // Square cells inscribed in circles of the given radius.
+        double side = radius * Math.sqrt(2);
+        int columns = Math.max(1, (int) Math.ceil((maxX - minX) / side));
+        int rows = Math.max(1, (int) Math.ceil((maxY - minY) / side));
+        if (columns * rows > MAX_PARTS * 4) return null;
+
+        double[] circles = new double[MAX_PARTS * 3];
+        int count = 0;
+        double radiusSquared = radius * radius;
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                double cx = minX + (column + 0.5) * side;
+                double cy = minY + (row + 0.5) * side;
+                double latitude = unprojectY(cy), longitude = unprojectX(cx);
+                if (!contains(latitude, longitude) && boundaryDistanceSquared(cx, cy) > radiusSquared) continue;
+                if (count == MAX_PARTS) return null;
+                circles[count * 3] = latitude;
+                circles[count * 3 + 1] = longitude;
+                circles[count * 3 + 2] = radius;
+                count++;
+            }
+        }
+        return Arrays.copyOf(circles, count * 3);
+    }
+
+    private double[] coverCorridor(double radius) {
+        // Circles of this radius centred on the path overlap enough to cover the whole
+        // width between them.
+        double spacing = 2 * Math.sqrt(radius * radius - (double) width * width);
+        double[] circles = new double[MAX_PARTS * 3];
+        int count = 0;
+        // Path distance of the next circle, measured from the start of the current edge.
+        double next = 0;
+        for (int e = 0; e < mEdgeCount; e++) {
+            double dx = mX[e + 1] - mX[e], dy = mY[e + 1] - mY[e];
+            double length = Math.hypot(dx, dy);
+            for (; next <= length; next += spacing) {
+                if (count == MAX_PARTS) return null;
+                double t = length > 0 ? next / length : 0;
+                circles[count * 3] = unprojectY(mY[e] + dy * t);
+                circles[count * 3 + 1] = unprojectX(mX[e] + dx * t);
+                circles[count * 3 + 2] = radius;
+                count++;
+            }
+            next -= length;
+        }
+        // Close the end of the path unless the last circle already sits on it.
+        if (spacing - next > 0) {
+            if (count == MAX_PARTS) return null;
+            circles[count * 3] = latitudes[latitudes.length - 1];
+            circles[count * 3 + 1] = longitudes[longitudes.length - 1];
+            circles[count * 3 + 2] = radius;
+            count++;
+        }
+        return Arrays.copyOf(circles, count * 3);
+    }
+
+    private double boundaryDistanceSquared(double x, double y) {
+        double best = Double.MAX_VALUE;
+        for (int e = 0; e < mEdgeCount; e++) {
+            best = Math.min(best, segmentDistanceSquared(e, x, y));
+        }
+        return best;
+    }
+
+    private double segmentDistanceSquared(int e, double x, double y) {
+        int j = e + 1 == mX.length ? 0 : e + 1;
+        double ax = mX[e], ay = mY[e];
+        double dx = mX[j] - ax, dy = mY[j] - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared > 0 ? ((x - ax) * dx + (y - ay) * dy) / lengthSquared : 0;
+        t = Math.max(0, Math.min(1, t));
+        double px = ax + t * dx - x, py = ay + t * dy - y;
+        return px * px + py * py;
+    }
+
+    private double edgeMinY(int e) {
+        int j = e + 1 == mY.length ? 0 : e + 1;
+        return Math.min(mY[e], mY[j]);
+    }
+
+    private double edgeMaxY(int e) {
+        int j = e + 1 == mY.length ? 0 : e + 1;
+        return Math.max(mY[e], mY[j]);
+    }
+
+    private int band(double y) {
+        return Math.max(0, Math.min(mBandCount - 1, (int) Math.floor((y - mMinY) / mBandHeight)));
+    }
+
+    private double projectX(double longitude) {
+        return (longitude - mOriginLongitude) * mMetersPerDegreeLongitude;
+    }
+
+    private double projectY(double latitude) {
+        return (latitude - mOriginLatitude) * GeoMath.METERS_PER_DEGREE;
+    }
+
+    private double unprojectX(double x) {
+        return mOriginLongitude + x / mMetersPerDegreeLongitude;
+    }
+
+    private double unprojectY(double y) {
+        return mOriginLatitude + y / GeoMath.METERS_PER_DEGREE;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof GeofenceShape)) return false;
+        GeofenceShape other = (GeofenceShape) o;
+        return type == other.type
+                && width == other.width
+                && coverRadius == other.coverRadius
+                && Arrays.equals(latitudes, other.latitudes)
+                && Arrays.equals(longitudes, other.longitudes);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(latitudes) + Arrays.hashCode(longitudes);
+    }
+
+    @Override
+    public String toString() {
+        return (type == POLYGON ? "Polygon{" : "Corridor{width=" + width + " ") + latitudes.length + " vertices}";
+    }
+}
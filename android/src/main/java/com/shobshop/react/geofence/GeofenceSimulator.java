@@ -0,0 +1,322 @@
+package com.shobshop.react.geofence;
+
+import android.content.Context;
+import android.location.Location;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-process stand-in for Play Services that replays a recorded location trace. Each fix
+ * is checked against the fences registered with the simulator, and the ENTER/EXIT/DWELL
+ * events that result go through a {@link TransitionPipeline} of their own: rotation,
+ * resolution and debounce run as they do for Play Services events, on a copy of the
+ * catalog and a debounce file of the simulator's. What comes out of the pipeline is
+ * collected in the {@link Result} instead of being delivered, so a replay leaves the
+ * fences registered with Play Services, the transition history, the queue, the outbox and
+ * JS untouched. It does count in {@link GeofenceMetrics}. Meant for load testing the
+ * native side without a device.
+ */
+public class GeofenceSimulator implements GeofencingBackend {
+    private static final String TAG = "RNGeofenceSimulator";
+    // Play Services' error for going over the per-app limit.
+    private static final int GEOFENCE_TOO_MANY_GEOFENCES = 1001;
+    private static final String DEBOUNCE_FILE_NAME = "RNGeofence.simulation.debounce";
+
+    private static final AtomicBoolean sRunning = new AtomicBoolean();
+
+    private final GeofenceCatalog mCatalog;
+    private final TransitionDebouncer mDebouncer;
+    private final LinkedHashMap<String, SimulatedFence> mFences = new LinkedHashMap<>();
+    // Initial triggers of fences added since the last step.
+    private final ArrayList<SimulatedEvent> mPending = new ArrayList<>();
+    private Location mLocation;
+
+    /**
+     * Summary of a replay.
+     */
+    public static class Result {
+        public int fixes;
+        // Geofencing events raised by the simulator, and the fences they reported.
+        public int events;
+        public int transitions;
+        // Active set rotations and the transitions that came out of the pipeline. Those
+        // still held by debounce when the trace ends are not delivered.
+        public int rotations;
+        public final ArrayList<GeofenceTransition> delivered = new ArrayList<>();
+        // Time covered by the trace and time the replay took.
+        public long traceDurationMs;
+        public long durationMs;
+    }
+
+    /**
+     * A simulator that registers the catalog's fences and debounces through the given
+     * debouncer. Neither should be shared with the live pipeline.
+     */
+    public GeofenceSimulator(GeofenceCatalog catalog, TransitionDebouncer debouncer) {
+        mCatalog = catalog;
+        mDebouncer = debouncer;
+    }
+
+    /**
+     * Replay the trace against a copy of the catalog. Blocks until done, so call it from
+     * a background thread. Throws IllegalStateException if a replay is already running.
+     */
+    public static Result run(Context context, List<Location> trace, double speed) {
+        if (!sRunning.compareAndSet(false, true)) {
+            throw new IllegalStateException("A simulation is already running");
+        }
+        // Left over if the process died during a replay.
+        File debounceFile = new File(context.getApplicationContext().getFilesDir(), DEBOUNCE_FILE_NAME);
+        debounceFile.delete();
+        try {
+            GeofenceSimulator simulator = new GeofenceSimulator(GeofenceCatalog.getInstance(context).copy(),
+                    new TransitionDebouncer(debounceFile));
+            return simulator.replay(trace, speed);
+        } finally {
+            debounceFile.delete();
+            sRunning.set(false);
+        }
+    }
+
+    /**
+     * Read a trace from a text file with one {@code time,latitude,longitude} fix per line,
+     * time in milliseconds. Lines that do not parse, such as a header, are skipped.
+     */
+    public static List<Location> readTrace(File file) throws IOException {
+        ArrayList<Location> trace = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",");
+                if (fields.length < 3) continue;
+                try {
+                    trace.add(createLocation(Double.parseDouble(fields[1].trim()),
+                            Double.parseDouble(fields[2].trim()),
+                            (long) Double.parseDouble(fields[0].trim())));
+                } catch (NumberFormatException e) {
+                    // Header or comment.
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return trace;
+    }
+
+    public static Location createLocation(double latitude, double longitude, long time) {
+        Location location = new Location(TAG);
+        location.setLatitude(latitude);
+        location.setLongitude(longitude);
+        location.setTime(time);
+        return location;
+    }
+
+    /**
+     * Replay the fixes in order, waiting between two of them for the time they are apart
+     * in the trace divided by speed. A speed of 0 replays as fast as possible.
+     */
+    public Result replay(List<Location> trace, double speed) {
+        final Result result = new Result();
+        if (trace.isEmpty()) return result;
+
+        final GeofenceMetrics metrics = GeofenceMetrics.getInstance();
+        TransitionPipeline pipeline = new TransitionPipeline(mCatalog, mDebouncer, new TransitionPipeline.Rotator() {
+            @Override
+            public void rotate(@Nullable Location location) {
+                if (location == null || !mCatalog.needsRotation()) return;
+                result.rotations++;
+                apply(mCatalog.plan(location.getLatitude(), location.getLongitude()));
+            }
+        }, new TransitionPipeline.Sink() {
+            @Override
+            public void deliver(List<GeofenceTransition> transitions) {
+                result.delivered.addAll(transitions);
+                TransitionPipeline.recordDelivered(transitions);
+            }
+        });
+
+        long traceStart = trace.get(0).getTime();
+        long start = SystemClock.elapsedRealtime();
+        // Register around where the trace starts, so fences around it trigger right away.
+        mLocation = trace.get(0);
+        apply(mCatalog.plan(mLocation.getLatitude(), mLocation.getLongitude()));
+        for (Location location : trace) {
+            if (speed > 0) {
+                long wait = start + (long) ((location.getTime() - traceStart) / speed) - SystemClock.elapsedRealtime();
+                if (wait > 0) {
+                    try {
+                        Thread.sleep(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+            result.fixes++;
+            // Rotation while handling an event registers fences, whose initial triggers are
+            // reported at the same fix.
+            List<SimulatedEvent> events = step(location);
+            while (!events.isEmpty()) {
+                for (SimulatedEvent event : events) {
+                    result.events++;
+                    result.transitions += event.identifiers.size();
+                    metrics.eventsReceived.incrementAndGet();
+                    pipeline.process(event.transition, event.identifiers, location);
+                }
+                events = takePending();
+            }
+            pipeline.releaseHeld();
+        }
+        // None if interrupted before the first fix.
+        if (result.fixes > 0) result.traceDurationMs = trace.get(result.fixes - 1).getTime() - traceStart;
+        result.durationMs = SystemClock.elapsedRealtime() - start;
+        Log.i(TAG, "Replayed " + result.fixes + " fixes covering " + result.traceDurationMs + "ms in "
+                + result.durationMs + "ms, " + result.events + " events, " + result.transitions + " transitions, "
+                + result.delivered.size() + " delivered, " + result.rotations + " rotations");
+        return result;
+    }
+
+    private void apply(ActiveSetPlan plan) {
+        if (!plan.removeIds.isEmpty()) removeGeofences(plan.removeIds);
+        if (!plan.addRecords.isEmpty() && addGeofences(plan.addRecords) != null) {
+            mCatalog.markInactive(plan);
+        }
+    }
+
+    @Override
+    @Nullable
+    public synchronized Exception addGeofences(List<GeofenceRecord> records) {
+        ArrayList<GeofenceRecord> fences = new ArrayList<>(records.size());
+        for (GeofenceRecord record : records) {
+            if (record.parts != null) {
+                fences.addAll(record.parts);
+            } else {
+                fences.add(record);
+            }
+        }
+        int count = mFences.size();
+        for (GeofenceRecord fence : fences) {
+            if (!mFences.containsKey(fence.identifier)) count++;
+        }
+        if (count > GeofenceCatalog.MAX_REGISTERED_GEOFENCES) {
+            return new IllegalStateException(GEOFENCE_TOO_MANY_GEOFENCES + ": " + count + " geofences");
+        }
+        for (GeofenceRecord record : fences) {
+            SimulatedFence fence = new SimulatedFence(record, RNGeofenceModule.getTransitionTypes(record));
+            mFences.put(record.identifier, fence);
+            // Registered with INITIAL_TRIGGER_ENTER | INITIAL_TRIGGER_DWELL: a fence added
+            // around the device reports right away.
+            if (mLocation != null) fence.update(mLocation, mPending);
+        }
+        return null;
+    }
+
+    @Override
+    @Nullable
+    public synchronized Exception removeGeofences(List<String> identifiers) {
+        for (String identifier : identifiers) {
+            mFences.remove(identifier);
+        }
+        return null;
+    }
+
+    @Override
+    @Nullable
+    public synchronized Exception removeAllGeofences() {
+        mFences.clear();
+        mPending.clear();
+        return null;
+    }
+
+    @Override
+    @Nullable
+    public synchronized Location getLastLocation() {
+        return mLocation;
+    }
+
+    @Override
+    public String toString() {
+        return TAG;
+    }
+
+    /**
+     * Move the device and return the events it raised, after any initial triggers still
+     * pending. Events are not handled here: handling one may register fences, which adds
+     * to the pending initial triggers.
+     */
+    private synchronized List<SimulatedEvent> step(Location location) {
+        mLocation = location;
+        for (SimulatedFence fence : mFences.values()) {
+            fence.update(location, mPending);
+        }
+        return takePending();
+    }
+
+    private synchronized List<SimulatedEvent> takePending() {
+        ArrayList<SimulatedEvent> events = new ArrayList<>(mPending);
+        mPending.clear();
+        return events;
+    }
+
+    private static void report(List<SimulatedEvent> events, int transition, String identifier) {
+        // Play Services reports fences that fire together as one event per transition type.
+        for (SimulatedEvent event : events) {
+            if (event.transition == transition) {
+                event.identifiers.add(identifier);
+                return;
+            }
+        }
+        SimulatedEvent event = new SimulatedEvent(transition);
+        event.identifiers.add(identifier);
+        events.add(event);
+    }
+
+    private static final class SimulatedFence {
+        final GeofenceRecord record;
+        final int transitionTypes;
+        boolean inside;
+        long enteredAt;
+        boolean dwellReported;
+
+        SimulatedFence(GeofenceRecord record, int transitionTypes) {
+            this.record = record;
+            this.transitionTypes = transitionTypes;
+        }
+
+        void update(Location location, List<SimulatedEvent> events) {
+            boolean nowInside = record.contains(location.getLatitude(), location.getLongitude());
+            if (nowInside != inside) {
+                inside = nowInside;
+                enteredAt = location.getTime();
+                dwellReported = false;
+                int transition = inside ? GeofenceTransition.ENTER : GeofenceTransition.EXIT;
+                if ((transitionTypes & transition) != 0) report(events, transition, record.identifier);
+            }
+            if (inside && !dwellReported && (transitionTypes & GeofenceTransition.DWELL) != 0
+                    && location.getTime() - enteredAt >= record.options.loiteringDelay) {
+                dwellReported = true;
+                report(events, GeofenceTransition.DWELL, record.identifier);
+            }
+        }
+    }
+
+    private static final class SimulatedEvent {
+        final int transition;
+        final ArrayList<String> identifiers = new ArrayList<>();
+
+        SimulatedEvent(int transition) {
+            this.transition = transition;
+        }
+    }
+}
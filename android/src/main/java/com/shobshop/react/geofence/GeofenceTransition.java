@@ -0,0 +1,80 @@
+package com.shobshop.react.geofence;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A single transition to report to JS.
+ */
+public class GeofenceTransition {
+    // Same values as Geofence.GEOFENCE_TRANSITION_*, so Play Services values can be used as is.
+    public static final int ENTER = 1;
+    public static final int EXIT = 2;
+    public static final int DWELL = 4;
+
+    public final String identifier;
+    public final int transition;
+    // Wall clock time in milliseconds at which the transition was handled natively.
+    public final long time;
+    // Triggering location fix. Coordinates, accuracy and speed are NaN and the fix time is
+    // 0 when unknown.
+    public final double latitude;
+    public final double longitude;
+    public final float accuracy;
+    public final float speed;
+    public final long locationTime;
+    // Meters from the triggering location to the centre of the fence, NaN when unknown.
+    public final float distance;
+
+    public GeofenceTransition(String identifier, int transition) {
+        this(identifier, transition, System.currentTimeMillis());
+    }
+
+    public GeofenceTransition(String identifier, int transition, long time) {
+        this(identifier, transition, time, Double.NaN, Double.NaN);
+    }
+
+    public GeofenceTransition(String identifier, int transition, long time, double latitude, double longitude) {
+        this(identifier, transition, time, latitude, longitude, Float.NaN, Float.NaN, 0, Float.NaN);
+    }
+
+    public GeofenceTransition(String identifier, int transition, long time, double latitude, double longitude,
+                              float accuracy, float speed, long locationTime, float distance) {
+        this.identifier = identifier;
+        this.transition = transition;
+        this.time = time;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.accuracy = accuracy;
+        this.speed = speed;
+        this.locationTime = locationTime;
+        this.distance = distance;
+    }
+
+    public boolean hasLocation() {
+        return !Double.isNaN(latitude) && !Double.isNaN(longitude);
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeUTF(identifier);
+        out.writeByte(transition);
+        out.writeLong(time);
+        out.writeDouble(latitude);
+        out.writeDouble(longitude);
+        out.writeFloat(accuracy);
+        out.writeFloat(speed);
+        out.writeLong(locationTime);
+        out.writeFloat(distance);
+    }
+
+    static GeofenceTransition readFrom(DataInputStream in) throws IOException {
+        return new GeofenceTransition(in.readUTF(), in.readByte(), in.readLong(), in.readDouble(), in.readDouble(),
+                in.readFloat(), in.readFloat(), in.readLong(), in.readFloat());
+    }
+
+    @Override
+    public String toString() {
+        return identifier + ":" + transition;
+    }
+}
@@ -2,17 +2,12 @@ package com.shobshop.react.geofence;
 
 import android.app.IntentService;
 
-import com.facebook.react.bridge.Arguments;
-import com.facebook.react.ReactApplication;
-import com.facebook.react.ReactNativeHost;
-import com.facebook.react.ReactInstanceManager;
-import com.facebook.react.bridge.ReactContext;
-import com.facebook.react.bridge.UiThreadUtil;
-import com.facebook.react.bridge.WritableMap;
 import com.google.android.gms.location.Geofence;
 import com.google.android.gms.location.GeofencingEvent;
 import android.content.Intent;
+import android.location.Location;
 import android.util.Log;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -21,94 +16,81 @@ import java.util.List;
 
 public class GeofenceTransitionsIntentService extends IntentService {
     private static final String TAG = "GeofenceIntentService";
+    // Fired by the alarm set for the next debounced transition that is due.
+    static final String ACTION_RELEASE_HELD = "com.shobshop.react.geofence.RELEASE_HELD";
+    // GeofenceStatusCodes.GEOFENCE_NOT_AVAILABLE: network location was turned off and Play
+    // Services dropped every fence.
+    private static final int GEOFENCE_NOT_AVAILABLE = 1000;
 
     public GeofenceTransitionsIntentService() {
         super("GeofenceTransitionsIntentService");
     }
-    private ReactNativeHost mReactNativeHost;
+    private TransitionPipeline mPipeline;
 
     @Override
     public void onCreate() {
         super.onCreate();
         Log.i(TAG, "GeofenceTransitionsIntentService onCreate");
-        ReactApplication reactApplication = ((ReactApplication) getApplicationContext());
-        mReactNativeHost = reactApplication.getReactNativeHost();
+        mPipeline = new TransitionPipeline(this);
     }
 
     protected void onHandleIntent(Intent intent) {
+        GeofenceMetrics metrics = GeofenceMetrics.getInstance();
+        if (ACTION_RELEASE_HELD.equals(intent.getAction())) {
+            mPipeline.releaseHeld();
+            return;
+        }
         final GeofencingEvent geofencingEvent = GeofencingEvent.fromIntent(intent);
+        metrics.eventsReceived.incrementAndGet();
         if (geofencingEvent.hasError()) {
             String errorMessage = "Error code = " + geofencingEvent.getErrorCode();
             Log.e(TAG, errorMessage);
+            if (geofencingEvent.getErrorCode() == GEOFENCE_NOT_AVAILABLE) {
+                new GeofenceSettings(this).setRegistrationLost();
+            }
             return;
         }
 
-        Runnable myRunnable = new Runnable() {
-            @Override
-            public void run() {
-            final ReactInstanceManager reactInstanceManager = mReactNativeHost.getReactInstanceManager();
-            ReactContext reactContext = reactInstanceManager.getCurrentReactContext();
-
-            if (reactContext == null) {
-                reactInstanceManager
-                        .addReactInstanceEventListener(new ReactInstanceManager.ReactInstanceEventListener() {
-                            @Override
-                            public void onReactContextInitialized(ReactContext reactContext) {
-                                handleGeofenceEvent(reactContext, geofencingEvent);
-                                reactInstanceManager.removeReactInstanceEventListener(this);
-                            }
-                        });
-                if (!reactInstanceManager.hasStartedCreatingInitialContext()) {
-                    reactInstanceManager.createReactContextInBackground();
-                }
-            } else {
-                handleGeofenceEvent(reactContext, geofencingEvent);
-            }
-            }
-        };
-
-        UiThreadUtil.runOnUiThread(myRunnable);
-    }
-
-    private void handleGeofenceEvent(ReactContext reactContext, GeofencingEvent geofencingEvent) {
         // Get the transition type.
         final int geofenceTransition = geofencingEvent.getGeofenceTransition();
 
         // Test that the reported transition was of interest.
-        if (geofenceTransition == Geofence.GEOFENCE_TRANSITION_ENTER ||
-                geofenceTransition == Geofence.GEOFENCE_TRANSITION_EXIT) {
-
-            // Get the geofences that were triggered. A single event can trigger
-            // multiple geofences.
-            final List<Geofence> triggeringGeofences = geofencingEvent.getTriggeringGeofences();
+        if (geofenceTransition != Geofence.GEOFENCE_TRANSITION_ENTER &&
+                geofenceTransition != Geofence.GEOFENCE_TRANSITION_EXIT &&
+                geofenceTransition != Geofence.GEOFENCE_TRANSITION_DWELL) {
+            // Log the error.
+            Log.e(TAG, "geofence_transition_invalid_type");
+            return;
+        }
 
-            // Get the transition details as a String.
-            String geofenceTransitionDetails = getGeofenceTransitionDetails(
-                    geofenceTransition,
-                    triggeringGeofences
-            );
+        // Get the geofences that were triggered. A single event can trigger
+        // multiple geofences.
+        final List<Geofence> triggeringGeofences = geofencingEvent.getTriggeringGeofences();
 
-            Log.i(TAG, "Geofence transition = " + geofenceTransitionDetails);
+        // Get the transition details as a String.
+        String geofenceTransitionDetails = getGeofenceTransitionDetails(
+                geofenceTransition,
+                triggeringGeofences
+        );
 
-            String eventName = "";
-            if(geofenceTransition == Geofence.GEOFENCE_TRANSITION_ENTER) eventName = RNGeofenceModule.ENTER_GEOFENCE;
-            if(geofenceTransition == Geofence.GEOFENCE_TRANSITION_EXIT) eventName = RNGeofenceModule.EXIT_GEOFENCE;
-            for (Geofence geofence : triggeringGeofences) {
-                WritableMap resultMap = Arguments.createMap();
-                resultMap.putString("identifier", geofence.getRequestId());
+        Log.i(TAG, "Geofence transition = " + geofenceTransitionDetails);
 
-                RNGeofencePackage.emitMessageToRN(reactContext, eventName, resultMap);
-            }
-        } else {
-            // Log the error.
-            Log.e(TAG, "geofence_transition_invalid_type");
+        Location location = geofencingEvent.getTriggeringLocation();
+        if (location != null) {
+            metrics.fixAge.record(System.currentTimeMillis() - location.getTime());
         }
-
+        ArrayList<String> identifiers = new ArrayList<>(triggeringGeofences.size());
+        for (Geofence geofence : triggeringGeofences) {
+            identifiers.add(geofence.getRequestId());
+        }
+        mPipeline.process(geofenceTransition, identifiers, location);
     }
+
     private String getGeofenceTransitionDetails(int geofenceTransition, List triggeringGeofences) {
         String eventName = "";
         if(geofenceTransition == Geofence.GEOFENCE_TRANSITION_ENTER) eventName = "Enter";
         if(geofenceTransition == Geofence.GEOFENCE_TRANSITION_EXIT) eventName = "Exit";
+        if(geofenceTransition == Geofence.GEOFENCE_TRANSITION_DWELL) eventName = "Dwell";
         return eventName + " geofence " + triggeringGeofences;
     }
 }
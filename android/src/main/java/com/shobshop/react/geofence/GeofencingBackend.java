@@ -0,0 +1,30 @@
+package com.shobshop.react.geofence;
+
+import android.location.Location;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * Where fences get registered and transitions come from. Play Services in an app, or
+ * {@link GeofenceSimulator} when replaying a recorded trace through a pipeline of its
+ * own. Play Services is only called from the {@link GeofenceCommandQueue} thread;
+ * each call blocks until the backend answered and returns the failure, or null on success.
+ */
+public interface GeofencingBackend {
+    /**
+     * Register the records, replacing fences with the same identifier. Shapes are
+     * registered as their covering parts.
+     */
+    @Nullable
+    Exception addGeofences(List<GeofenceRecord> records);
+
+    @Nullable
+    Exception removeGeofences(List<String> identifiers);
+
+    @Nullable
+    Exception removeAllGeofences();
+
+    @Nullable
+    Location getLastLocation();
+}
@@ -0,0 +1,104 @@
+package com.shobshop.react.geofence;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.location.Location;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.gms.location.GeofencingClient;
+import com.google.android.gms.location.LocationServices;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The real backend: fences go to the GeofencingClient and transitions arrive at
+ * {@link GeofenceTransitionsIntentService}.
+ */
+public class PlayServicesBackend implements GeofencingBackend {
+    private static final String TAG = "RNGeofencePlayServices";
+    private static final long TASK_TIMEOUT_SECONDS = 10;
+
+    private final Context mContext;
+    private final GeofencingClient mGeofencingClient;
+    private PendingIntent mGeofencePendingIntent;
+
+    public PlayServicesBackend(Context context) {
+        mContext = context.getApplicationContext();
+        mGeofencingClient = LocationServices.getGeofencingClient(mContext);
+    }
+
+    @Override
+    @Nullable
+    public Exception addGeofences(List<GeofenceRecord> records) {
+        try {
+            return await(mGeofencingClient.addGeofences(
+                    RNGeofenceModule.getGeofencingRequest(RNGeofenceModule.createGeofences(records,
+                            new GeofenceSettings(mContext).getResponsivenessMs())),
+                    getGeofencePendingIntent()));
+        } catch (SecurityException e) {
+            return e;
+        }
+    }
+
+    @Override
+    @Nullable
+    public Exception removeGeofences(List<String> identifiers) {
+        return await(mGeofencingClient.removeGeofences(identifiers));
+    }
+
+    @Override
+    @Nullable
+    public Exception removeAllGeofences() {
+        try {
+            return await(mGeofencingClient.removeGeofences(getGeofencePendingIntent()));
+        } catch (SecurityException e) {
+            return e;
+        }
+    }
+
+    @Override
+    @Nullable
+    public Location getLastLocation() {
+        try {
+            return Tasks.await(LocationServices.getFusedLocationProviderClient(mContext).getLastLocation(),
+                    TASK_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException | SecurityException e) {
+            Log.w(TAG, "Cannot read last location", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /**
+     * Wait for a Play Services task. Returns the failure, or null on success.
+     */
+    @Nullable
+    private static Exception await(Task<Void> task) {
+        try {
+            Tasks.await(task, TASK_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (TimeoutException e) {
+            return e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return e;
+        }
+    }
+
+    private PendingIntent getGeofencePendingIntent() {
+        // Reuse the PendingIntent if we already have it.
+        if (mGeofencePendingIntent == null) {
+            mGeofencePendingIntent = RNGeofenceModule.createGeofencePendingIntent(mContext);
+        }
+        return mGeofencePendingIntent;
+    }
+}
@@ -5,35 +5,37 @@ import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import android.content.Context;
+import android.location.Location;
 import android.os.Build;
 import android.provider.Settings;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
 
+import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableMapKeySetIterator;
 import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.UiThreadUtil;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
 
 import android.text.TextUtils;
 import android.util.Log;
 
-import com.google.android.gms.common.api.Result;
 import com.google.android.gms.location.Geofence;
 import com.google.android.gms.location.GeofencingRequest;
-import com.google.android.gms.location.LocationServices;
-import com.google.android.gms.common.api.GoogleApiClient;
 import android.app.PendingIntent;
 import android.content.Intent;
 import android.app.Activity;
 import com.google.android.gms.common.ConnectionResult;
-import android.os.Bundle;
-import com.facebook.react.bridge.UiThreadUtil;
-import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.common.GoogleApiAvailability;
 
 public class RNGeofenceModule extends ReactContextBaseJavaModule {
@@ -43,18 +45,77 @@ public class RNGeofenceModule extends ReactContextBaseJavaModule {
 
   public static final String ENTER_GEOFENCE = "RNGeofence:EnterGeofence";
   public static final String EXIT_GEOFENCE = "RNGeofence:ExitGeofence";
+  public static final String DWELL_GEOFENCE = "RNGeofence:DwellGeofence";
   public static final String DEVICE_BOOT_COMPLETED = "RNGeofence:DeviceBootCompleted";
+  public static final String TRANSITIONS = "RNGeofence:Transitions";
+  public static final String REGISTRY_CHANGED = "RNGeofence:RegistryChanged";
+  public static final String GEOFENCES_EVICTED = "RNGeofence:GeofencesEvicted";
   public static final String REACT_CLASS = "RNGeofenceModule";
 
-  private GoogleApiClient mGoogleApiClient;
-  private PendingIntent mGeofencePendingIntent;
+
+  // Catalog changes not emitted yet, folded into one while the UI thread is busy.
+  private final Object mChangeLock = new Object();
+  private GeofenceCatalog.StateChange mPendingChange;
 
   public RNGeofenceModule(ReactApplicationContext reactContext, Context context) {
     super(reactContext);
     this.reactContext = reactContext;
     mContext = context;
+    GeofenceCatalog.setStateListener(new GeofenceCatalog.StateListener() {
+      @Override
+      public void onStateChanged(GeofenceCatalog.StateChange change) {
+        boolean schedule;
+        synchronized (mChangeLock) {
+          schedule = mPendingChange == null;
+          if (schedule) {
+            mPendingChange = change;
+          } else {
+            mPendingChange.merge(change);
+          }
+        }
+        if (schedule) {
+          UiThreadUtil.runOnUiThread(mEmitState);
+        }
+      }
+
+      @Override
+      public void onEvicted(final List<String> evicted, final List<String> expired) {
+        UiThreadUtil.runOnUiThread(new Runnable() {
+          @Override
+          public void run() {
+            if (!reactContext.hasActiveCatalystInstance()) return;
+            WritableMap resultMap = Arguments.createMap();
+            resultMap.putArray("evicted", createStringArray(evicted));
+            resultMap.putArray("expired", createStringArray(expired));
+            RNGeofencePackage.emitMessageToRN(reactContext, GEOFENCES_EVICTED, resultMap);
+          }
+        });
+      }
+    });
   }
 
+  private final Runnable mEmitState = new Runnable() {
+    @Override
+    public void run() {
+      GeofenceCatalog.StateChange change;
+      synchronized (mChangeLock) {
+        change = mPendingChange;
+        mPendingChange = null;
+      }
+      if (change == null || !reactContext.hasActiveCatalystInstance()) return;
+      // Only what changed, the identifiers can be long. JS that missed changes reads
+      // the whole state with getRegistryState.
+      WritableMap resultMap = Arguments.createMap();
+      resultMap.putDouble("version", change.version);
+      if (change.reset) resultMap.putBoolean("reset", true);
+      putStringArray(resultMap, "added", change.added);
+      putStringArray(resultMap, "removed", change.removed);
+      putStringArray(resultMap, "entered", change.entered);
+      putStringArray(resultMap, "exited", change.exited);
+      RNGeofencePackage.emitMessageToRN(reactContext, REGISTRY_CHANGED, resultMap);
+    }
+  };
+
   @Override
   public String getName() {
     return "RNGeofence";
@@ -65,49 +126,19 @@ public class RNGeofenceModule extends ReactContextBaseJavaModule {
     final Map<String, Object> constants = new HashMap<>();
     constants.put("ENTER_GEOFENCE", ENTER_GEOFENCE);
     constants.put("EXIT_GEOFENCE", EXIT_GEOFENCE);
+    constants.put("DWELL_GEOFENCE", DWELL_GEOFENCE);
     constants.put("DEVICE_BOOT_COMPLETED", DEVICE_BOOT_COMPLETED);
+    constants.put("TRANSITIONS", TRANSITIONS);
+    constants.put("REGISTRY_CHANGED", REGISTRY_CHANGED);
+    constants.put("GEOFENCES_EVICTED", GEOFENCES_EVICTED);
     return constants;
   }
 
   @ReactMethod
   public void initialize(final Promise promise) {
-    // Create an instance of GoogleAPIClient.
-    if (mGoogleApiClient == null) {
-
-      UiThreadUtil.runOnUiThread(new Runnable() {
-        @Override
-        public void run() {
-          GoogleApiClient.ConnectionCallbacks mConnectionListener = new GoogleApiClient.ConnectionCallbacks() {
-            @Override
-            public void onConnected(@Nullable Bundle bundle) {
-              Log.i(REACT_CLASS, "GoogleApiClient connection completed");
-              promise.resolve(true);
-            }
-
-            @Override
-            public void onConnectionSuspended(int i) {
-              Log.i(REACT_CLASS, "GoogleApiClient connection suspended");
-              promise.reject("GOOGLE_API_CONNECT_ERROR", "Connection suspended");
-            }
-          };
-          GoogleApiClient.OnConnectionFailedListener mConnectionFailedListener = new GoogleApiClient.OnConnectionFailedListener() {
-            @Override
-            public void onConnectionFailed(@NonNull ConnectionResult connectionResult) {
-              promise.reject("GOOGLE_API_CONNECT_ERROR", "GoogleApiClient connection failed");
-              Log.i(REACT_CLASS, "Connection failed: ConnectionResult.getErrorCode() = " + connectionResult.getErrorCode());
-            }
-          };
-          mGoogleApiClient = new GoogleApiClient.Builder(mContext)
-                  .addApi(LocationServices.API)
-                  .build();
-          mGoogleApiClient.registerConnectionCallbacks(mConnectionListener);
-          mGoogleApiClient.registerConnectionFailedListener(mConnectionFailedListener);
-          mGoogleApiClient.connect();
-        }
-      });
-    } else {
-      promise.resolve(true);
-    }
+    // GeofencingClient needs no connection, so there is nothing to wait for. Kept so that
+    // existing callers keep working.
+    promise.resolve(true);
   }
 
   @ReactMethod
@@ -131,72 +162,84 @@ public class RNGeofenceModule extends ReactContextBaseJavaModule {
   @ReactMethod
   public void addGeofence(final ReadableMap config, final Promise promise) {
     Log.i(REACT_CLASS, "Add geofence: " + config);
+    final ArrayList<GeofenceRecord> records = new ArrayList<GeofenceRecord>(1);
+    try {
+      records.add(createGeofenceRecord(config));
+    } catch (IllegalArgumentException e) {
+      promise.reject("INVALID_GEOFENCE", e.getMessage(), e);
+      return;
+    }
 
-    UiThreadUtil.runOnUiThread(new Runnable() {
-      ResultCallback mGeofenceCreationListener = new ResultCallback() {
-        @Override
-        public void onResult(@NonNull Result result) {
-          Log.i(REACT_CLASS, "Add geofence result = " + result);
-          if(result.getStatus().isSuccess()) promise.resolve(true);
-          else promise.reject("ADD_GEOFENCE_FAILED", "Add geofence failed: " + result.getStatus().getStatusCode());
-        }
-      };
-
-      @Override
-      public void run() {
-        Geofence geofence = createGeofence(config.getString("identifier"),
-                config.getDouble("latitude"),
-                config.getDouble("longitude"),
-                (float)config.getDouble("radius")) ;
-        LocationServices.GeofencingApi.addGeofences(
-                mGoogleApiClient,
-                getGeofencingRequest(geofence),
-                getGeofencePendingIntent()
-        ).setResultCallback(mGeofenceCreationListener);
-      }
-    });
+    GeofenceCommandQueue.getInstance(mContext).add(records, promise);
   }
 
   @ReactMethod
-  public void addGeofences(final ReadableArray configs, final Promise promise) {
+  public void addGeofences(final ReadableArray configs, final ReadableMap options, final Promise promise) {
     Log.i(REACT_CLASS, "Add geofences: " + configs);
+    ArrayList<GeofenceRecord> parsed = createGeofenceRecords(configs, null, promise);
+    if (parsed == null) return;
+    // Dense areas can be registered as a few parent fences whose children are resolved natively.
+    final List<GeofenceRecord> records = options != null && options.hasKey("clusterRadius")
+            ? GeofenceClusterer.cluster(parsed, (float) options.getDouble("clusterRadius"))
+            : parsed;
+
+    GeofenceCommandQueue.getInstance(mContext).add(records, promise);
+  }
 
-    UiThreadUtil.runOnUiThread(new Runnable() {
-      ResultCallback mGeofenceCreationListener = new ResultCallback() {
-        @Override
-        public void onResult(@NonNull Result result) {
-          Log.i(REACT_CLASS, "Add geofence result = " + result);
-          if(result.getStatus().isSuccess()) promise.resolve(true);
-          else promise.reject("ADD_GEOFENCE_FAILED", "Add geofence failed: " + result.getStatus().getStatusCode());
-        }
-      };
+  @ReactMethod
+  public void syncGeofences(final ReadableArray configs, final ReadableMap options, final Promise promise) {
+    Log.i(REACT_CLASS, "Sync geofences: " + configs.size());
+    ArrayList<GeofenceRecord> parsed = createGeofenceRecords(configs, null, promise);
+    if (parsed == null) return;
+    final float clusterRadius = options != null && options.hasKey("clusterRadius")
+            ? (float) options.getDouble("clusterRadius")
+            : 0;
+
+    GeofenceCommandQueue.getInstance(mContext).sync(parsed, clusterRadius, promise);
+  }
 
-      @Override
-      public void run() {
-        ArrayList<Geofence> geofences = new ArrayList<Geofence>();
-        for(int i=0; i<configs.size(); i++) {
-          ReadableMap config = configs.getMap(i);
-          Geofence geofence = createGeofence(config.getString("identifier"),
-                  config.getDouble("latitude"),
-                  config.getDouble("longitude"),
-                  (float)config.getDouble("radius")) ;
-          geofences.add(geofence);
-        }
-        LocationServices.GeofencingApi.addGeofences(
-                mGoogleApiClient,
-                getGeofencingRequest(geofences),
-                getGeofencePendingIntent()
-        ).setResultCallback(mGeofenceCreationListener);
-      }
-    });
+  @ReactMethod
+  public void removeGroup(String group, final Promise promise) {
+    Log.i(REACT_CLASS, "Remove group: " + group);
+    GeofenceCommandQueue.getInstance(mContext).removeGroup(group, promise);
   }
 
   @ReactMethod
-  public void removeGeofence(String identifier) {
+  public void listGroup(String group, final Promise promise) {
+    GeofenceCommandQueue.getInstance(mContext).listGroup(group, promise);
+  }
+
+  @ReactMethod
+  public void replaceGroup(String group, final ReadableArray configs, final ReadableMap options, final Promise promise) {
+    Log.i(REACT_CLASS, "Replace group " + group + ": " + configs.size());
+    ArrayList<GeofenceRecord> parsed = createGeofenceRecords(configs, group, promise);
+    if (parsed == null) return;
+    final float clusterRadius = options != null && options.hasKey("clusterRadius")
+            ? (float) options.getDouble("clusterRadius")
+            : 0;
+
+    GeofenceCommandQueue.getInstance(mContext).replaceGroup(group, parsed, clusterRadius, promise);
+  }
+
+  /**
+   * Every identifier and those the device is in, for JS to start the copy it keeps current
+   * with REGISTRY_CHANGED events from. Read from the catalog, so it never waits for the
+   * command queue.
+   */
+  @ReactMethod
+  public void getRegistryState(Promise promise) {
+    GeofenceCatalog.State state = GeofenceCatalog.getInstance(mContext).getState();
+    WritableMap resultMap = Arguments.createMap();
+    resultMap.putDouble("version", state.version);
+    resultMap.putArray("identifiers", createStringArray(state.identifiers));
+    resultMap.putArray("inside", createStringArray(state.inside));
+    promise.resolve(resultMap);
+  }
+
+  @ReactMethod
+  public void removeGeofence(String identifier, final Promise promise) {
     Log.i(REACT_CLASS, "Remove geofence: " + identifier);
-    ArrayList<String> idList = new ArrayList<String>();
-    idList.add(identifier);
-    LocationServices.GeofencingApi.removeGeofences(mGoogleApiClient, idList);
+    GeofenceCommandQueue.getInstance(mContext).remove(identifier, promise);
   }
 
   @ReactMethod
@@ -222,9 +265,240 @@ public class RNGeofenceModule extends ReactContextBaseJavaModule {
   }
 
   @ReactMethod
-  public void removeAllGeofences() {
+  public void removeAllGeofences(final Promise promise) {
     Log.i(REACT_CLASS, "Remove all geofences");
-    LocationServices.GeofencingApi.removeGeofences(mGoogleApiClient, getGeofencePendingIntent());
+    GeofenceCommandQueue.getInstance(mContext).removeAll(promise);
+  }
+
+  @ReactMethod
+  public void setEventBatching(ReadableMap options, Promise promise) {
+    boolean enabled = options.hasKey("enabled") && options.getBoolean("enabled");
+    long windowMs = options.hasKey("windowMs")
+            ? (long) options.getDouble("windowMs")
+            : GeofenceSettings.DEFAULT_BATCH_WINDOW_MS;
+    Log.i(REACT_CLASS, "Event batching enabled = " + enabled + ", window = " + windowMs + "ms");
+    new GeofenceSettings(mContext).setEventBatching(enabled, windowMs);
+    promise.resolve(true);
+  }
+
+  @ReactMethod
+  public void setWakeOnTransition(boolean enabled, Promise promise) {
+    Log.i(REACT_CLASS, "Wake on transition = " + enabled);
+    new GeofenceSettings(mContext).setWakeOnTransition(enabled);
+    promise.resolve(true);
+  }
+
+  @ReactMethod
+  public void setAdaptiveResponsiveness(ReadableMap options, final Promise promise) {
+    boolean enabled = options.hasKey("enabled") && options.getBoolean("enabled");
+    List<ResponsivenessAdapter.Level> levels = ResponsivenessAdapter.DEFAULT_LEVELS;
+    if (options.hasKey("levels")) {
+      ReadableArray levelArray = options.getArray("levels");
+      levels = new ArrayList<ResponsivenessAdapter.Level>(levelArray.size());
+      for (int i = 0; i < levelArray.size(); i++) {
+        ReadableMap level = levelArray.getMap(i);
+        int responsivenessMs = level.getInt("responsivenessMs");
+        if (responsivenessMs < 0) {
+          promise.reject("INVALID_RESPONSIVENESS", "responsivenessMs cannot be negative");
+          return;
+        }
+        levels.add(new ResponsivenessAdapter.Level((float) level.getDouble("minSpeed"), responsivenessMs));
+      }
+    }
+    long minIntervalMs = options.hasKey("minIntervalMs")
+            ? (long) options.getDouble("minIntervalMs")
+            : ResponsivenessAdapter.DEFAULT_MIN_INTERVAL_MS;
+    Log.i(REACT_CLASS, "Adaptive responsiveness enabled = " + enabled + ", levels = " + levels
+            + ", min interval = " + minIntervalMs + "ms");
+    final GeofenceSettings settings = new GeofenceSettings(mContext);
+    settings.setAdaptiveResponsiveness(enabled, levels, minIntervalMs);
+    if (enabled || settings.getResponsivenessMs() == 0) {
+      promise.resolve(true);
+      return;
+    }
+    // Back to the default right away, whatever the rate limit.
+    settings.setResponsiveness(0, System.currentTimeMillis());
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        GeofenceRegistrar.refresh(mContext);
+        promise.resolve(true);
+      }
+    }, "RNGeofenceResponsiveness").start();
+  }
+
+  @ReactMethod
+  public void setMaxGeofences(int maxGeofences, final Promise promise) {
+    if (maxGeofences < 0) {
+      promise.reject("INVALID_MAX_GEOFENCES", "maxGeofences cannot be negative");
+      return;
+    }
+    Log.i(REACT_CLASS, "Max geofences = " + maxGeofences);
+    new GeofenceSettings(mContext).setMaxGeofences(maxGeofences);
+    GeofenceCatalog.getInstance(mContext).setMaxFences(maxGeofences);
+    // Evict right away rather than with the next change.
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        GeofenceRegistrar.replan(mContext);
+        promise.resolve(true);
+      }
+    }, "RNGeofenceEviction").start();
+  }
+
+  @ReactMethod
+  public void drainPendingTransitions(Promise promise) {
+    List<GeofenceTransition> transitions = new TransitionQueue(mContext).drain();
+    Log.i(REACT_CLASS, "Drain " + transitions.size() + " pending transitions");
+    GeofenceMetrics.getInstance().transitionsDrained.addAndGet(transitions.size());
+    promise.resolve(RNGeofencePackage.createTransitionArray(transitions));
+  }
+
+  /**
+   * Emit the transitions queued while JS was not running as regular events. index.js
+   * calls it once JS subscribes to a transition event, so that someone is listening.
+   */
+  @ReactMethod
+  public void deliverPendingTransitions(Promise promise) {
+    new TransitionPipeline(mContext).deliverQueued(reactContext);
+    promise.resolve(true);
+  }
+
+  @ReactMethod
+  public void getTransitionHistory(ReadableMap options, Promise promise) {
+    long since = options.hasKey("since") ? (long) options.getDouble("since") : 0;
+    int limit = options.hasKey("limit") ? options.getInt("limit") : TransitionHistory.DEFAULT_LIMIT;
+    long cursor = options.hasKey("cursor") && !options.isNull("cursor") ? (long) options.getDouble("cursor") : -1;
+    TransitionHistory.Page page = TransitionHistory.getInstance(mContext).query(since, limit, cursor);
+    WritableMap resultMap = Arguments.createMap();
+    resultMap.putArray("transitions", RNGeofencePackage.createTransitionArray(page.transitions));
+    resultMap.putDouble("cursor", page.cursor);
+    promise.resolve(resultMap);
+  }
+
+  @ReactMethod
+  public void setOutbox(ReadableMap options, Promise promise) {
+    String url = options.hasKey("url") && !options.isNull("url") ? options.getString("url") : null;
+    if (url == null) {
+      Log.i(REACT_CLASS, "Outbox disabled");
+      new GeofenceSettings(mContext).setOutbox(null, new HashMap<String, String>(),
+              GeofenceSettings.DEFAULT_OUTBOX_BATCH_SIZE, GeofenceSettings.DEFAULT_OUTBOX_FLUSH_INTERVAL_MS);
+      TransitionOutbox.getInstance(mContext).clear();
+      TransitionOutboxService.schedule(mContext);
+      promise.resolve(true);
+      return;
+    }
+    if (!url.startsWith("http://") && !url.startsWith("https://")) {
+      promise.reject("INVALID_OUTBOX", "Outbox url must be http or https: " + url);
+      return;
+    }
+    Map<String, String> headers = new HashMap<String, String>();
+    if (options.hasKey("headers") && !options.isNull("headers")) {
+      ReadableMap headerMap = options.getMap("headers");
+      ReadableMapKeySetIterator iterator = headerMap.keySetIterator();
+      while (iterator.hasNextKey()) {
+        String name = iterator.nextKey();
+        String value = headerMap.getString(name);
+        if (name.indexOf('\n') >= 0 || value.indexOf('\n') >= 0) {
+          promise.reject("INVALID_OUTBOX", "Outbox header cannot contain a line break: " + name);
+          return;
+        }
+        headers.put(name, value);
+      }
+    }
+    int batchSize = options.hasKey("batchSize")
+            ? options.getInt("batchSize")
+            : GeofenceSettings.DEFAULT_OUTBOX_BATCH_SIZE;
+    long flushIntervalMs = options.hasKey("flushIntervalMs")
+            ? (long) options.getDouble("flushIntervalMs")
+            : GeofenceSettings.DEFAULT_OUTBOX_FLUSH_INTERVAL_MS;
+    if (batchSize < 1 || flushIntervalMs < 0) {
+      promise.reject("INVALID_OUTBOX", "batchSize must be at least 1 and flushIntervalMs not negative");
+      return;
+    }
+    Log.i(REACT_CLASS, "Outbox url = " + url + ", batch size = " + batchSize + ", flush interval = " + flushIntervalMs + "ms");
+    new GeofenceSettings(mContext).setOutbox(url, headers, batchSize, flushIntervalMs);
+    TransitionOutboxService.schedule(mContext);
+    promise.resolve(true);
+  }
+
+  @ReactMethod
+  public void flushOutbox(Promise promise) {
+    int pending = TransitionOutbox.getInstance(mContext).size();
+    if (new GeofenceSettings(mContext).getOutboxUrl() != null && pending > 0) {
+      TransitionOutboxService.flush(mContext);
+    }
+    promise.resolve(pending);
+  }
+
+  @ReactMethod
+  public void getMetrics(Promise promise) {
+    promise.resolve(GeofenceMetrics.getInstance().toWritableMap(GeofenceCatalog.getInstance(mContext)));
+  }
+
+  @ReactMethod
+  public void resetMetrics(Promise promise) {
+    GeofenceMetrics.getInstance().reset();
+    promise.resolve(true);
+  }
+
+  @ReactMethod
+  public void simulateTrace(final ReadableMap options, final Promise promise) {
+    final List<Location> trace;
+    try {
+      trace = options.hasKey("path")
+              ? GeofenceSimulator.readTrace(new File(options.getString("path")))
+              : createTrace(options.getArray("trace"));
+    } catch (IOException e) {
+      promise.reject("SIMULATION_FAILED", "Cannot read trace: " + e.getMessage(), e);
+      return;
+    }
+    final double speed = options.hasKey("speed") ? options.getDouble("speed") : 0;
+    Log.i(REACT_CLASS, "Simulate trace of " + trace.size() + " fixes, speed = " + speed);
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          GeofenceSimulator.Result result = GeofenceSimulator.run(mContext, trace, speed);
+          WritableMap resultMap = Arguments.createMap();
+          resultMap.putInt("fixes", result.fixes);
+          resultMap.putInt("events", result.events);
+          resultMap.putInt("transitions", result.transitions);
+          resultMap.putInt("delivered", result.delivered.size());
+          resultMap.putInt("rotations", result.rotations);
+          resultMap.putDouble("traceDurationMs", result.traceDurationMs);
+          resultMap.putDouble("durationMs", result.durationMs);
+          promise.resolve(resultMap);
+        } catch (RuntimeException e) {
+          promise.reject("SIMULATION_FAILED", e.getMessage(), e);
+        }
+      }
+    }, "RNGeofenceSimulator").start();
+  }
+
+  private static void putStringArray(WritableMap map, String key, Collection<String> strings) {
+    if (!strings.isEmpty()) map.putArray(key, createStringArray(strings));
+  }
+
+  private static WritableArray createStringArray(Collection<String> strings) {
+    WritableArray array = Arguments.createArray();
+    for (String string : strings) {
+      array.pushString(string);
+    }
+    return array;
+  }
+
+  private static List<Location> createTrace(ReadableArray fixes) {
+    ArrayList<Location> trace = new ArrayList<Location>(fixes.size());
+    for(int i=0; i<fixes.size(); i++) {
+      ReadableMap fix = fixes.getMap(i);
+      Location location = GeofenceSimulator.createLocation(fix.getDouble("latitude"), fix.getDouble("longitude"),
+              (long)fix.getDouble("time"));
+      if (fix.hasKey("accuracy")) location.setAccuracy((float)fix.getDouble("accuracy"));
+      if (fix.hasKey("speed")) location.setSpeed((float)fix.getDouble("speed"));
+      trace.add(location);
+    }
+    return trace;
   }
 
   @ReactMethod
@@ -235,53 +509,168 @@ public class RNGeofenceModule extends ReactContextBaseJavaModule {
   }
 
 
-  private PendingIntent getGeofencePendingIntent() {
-    // Reuse the PendingIntent if we already have it.
-    if (mGeofencePendingIntent != null) {
-      return mGeofencePendingIntent;
-    }
-    Intent intent = new Intent(reactContext, GeofenceTransitionsIntentService.class);
+  static String getEventName(int transition) {
+    if(transition == Geofence.GEOFENCE_TRANSITION_ENTER) return ENTER_GEOFENCE;
+    if(transition == Geofence.GEOFENCE_TRANSITION_EXIT) return EXIT_GEOFENCE;
+    if(transition == Geofence.GEOFENCE_TRANSITION_DWELL) return DWELL_GEOFENCE;
+    return "";
+  }
+
+  static PendingIntent createGeofencePendingIntent(Context context) {
+    Intent intent = new Intent(context, GeofenceTransitionsIntentService.class);
     // We use FLAG_UPDATE_CURRENT so that we get the same pending intent back when
     // calling addGeofences() and removeGeofences().
     Log.i(REACT_CLASS, "Geofence intent = " + intent);
-    mGeofencePendingIntent = PendingIntent.getService(reactContext, 0, intent, PendingIntent.
+    return PendingIntent.getService(context, 0, intent, PendingIntent.
             FLAG_UPDATE_CURRENT);
-    return mGeofencePendingIntent;
   }
 
-  private GeofencingRequest getGeofencingRequest(Geofence geofence) {
+  static GeofencingRequest getGeofencingRequest(List<Geofence> geofenceList) {
     GeofencingRequest.Builder builder = new GeofencingRequest.Builder();
 
     // The INITIAL_TRIGGER_ENTER flag indicates that geofencing service should trigger a
     // GEOFENCE_TRANSITION_ENTER notification when the geofence is added and if the device
-    // is already inside that geofence.
-    builder.setInitialTrigger(GeofencingRequest.INITIAL_TRIGGER_ENTER);
-    builder.addGeofence(geofence);
+    // is already inside that geofence. Dwell geofences get GEOFENCE_TRANSITION_DWELL instead
+    // once the loitering delay has passed.
+    builder.setInitialTrigger(GeofencingRequest.INITIAL_TRIGGER_ENTER | GeofencingRequest.INITIAL_TRIGGER_DWELL);
+    builder.addGeofences(geofenceList);
 
     // Return a GeofencingRequest.
     return builder.build();
   }
 
-  private GeofencingRequest getGeofencingRequest(ArrayList<Geofence> geofenceList) {
-    GeofencingRequest.Builder builder = new GeofencingRequest.Builder();
+  static ArrayList<Geofence> createGeofences(List<GeofenceRecord> records) {
+    return createGeofences(records, 0);
+  }
 
-    // The INITIAL_TRIGGER_ENTER flag indicates that geofencing service should trigger a
-    // GEOFENCE_TRANSITION_ENTER notification when the geofence is added and if the device
-    // is already inside that geofence.
-    builder.setInitialTrigger(GeofencingRequest.INITIAL_TRIGGER_ENTER);
-    builder.addGeofences(geofenceList);
+  static ArrayList<Geofence> createGeofences(List<GeofenceRecord> records, int responsivenessMs) {
+    ArrayList<Geofence> geofences = new ArrayList<Geofence>(records.size());
+    for (GeofenceRecord record : records) {
+      if (record.parts != null) {
+        // A shape is registered as the circles covering it.
+        for (GeofenceRecord part : record.parts) {
+          geofences.add(createGeofence(part, responsivenessMs));
+        }
+      } else {
+        geofences.add(createGeofence(record, responsivenessMs));
+      }
+    }
+    return geofences;
+  }
 
-    // Return a GeofencingRequest.
-    return builder.build();
+  /**
+   * Records for the configs, tagged with group unless it is null, or null once the promise
+   * was rejected because a config is not a valid geofence, such as a polygon with fewer
+   * than 3 vertices.
+   */
+  private static ArrayList<GeofenceRecord> createGeofenceRecords(ReadableArray configs, String group, Promise promise) {
+    ArrayList<GeofenceRecord> records = new ArrayList<GeofenceRecord>(configs.size());
+    try {
+      for(int i=0; i<configs.size(); i++) {
+        ReadableMap config = configs.getMap(i);
+        records.add(group != null ? createGeofenceRecord(config, group) : createGeofenceRecord(config));
+      }
+    } catch (IllegalArgumentException e) {
+      promise.reject("INVALID_GEOFENCE", e.getMessage(), e);
+      return null;
+    }
+    return records;
+  }
+
+  static GeofenceRecord createGeofenceRecord(ReadableMap config) {
+    return createGeofenceRecord(config, config.hasKey("group") ? config.getString("group") : null);
   }
 
-  private Geofence createGeofence(String identifier, double latitude, double longitude, float radius) {
-    return new Geofence.Builder()
+  static GeofenceRecord createGeofenceRecord(ReadableMap config, String group) {
+    int loiteringDelay = config.hasKey("loiteringDelay") ? config.getInt("loiteringDelay") : 0;
+    int debounce = config.hasKey("debounce") ? config.getInt("debounce") : 0;
+    int priority = config.hasKey("priority") ? config.getInt("priority") : 0;
+    // expirationDuration is relative to now, as with Play Services. The catalog keeps the
+    // time from the first add when the same duration is given again.
+    long expiresAt = 0;
+    long expirationDuration = 0;
+    if (config.hasKey("expiresAt")) {
+      expiresAt = Math.max(0, (long)config.getDouble("expiresAt"));
+    } else if (config.hasKey("expirationDuration")) {
+      expirationDuration = Math.max(1, (long)config.getDouble("expirationDuration"));
+      expiresAt = System.currentTimeMillis() + expirationDuration;
+    }
+    GeofenceOptions options = loiteringDelay > 0 || debounce > 0 || priority != 0 || expiresAt > 0
+            ? new GeofenceOptions(loiteringDelay, debounce, priority, expiresAt, expirationDuration)
+            : GeofenceOptions.DEFAULT;
+    float coverRadius = config.hasKey("coverRadius") ? (float)config.getDouble("coverRadius") : 0;
+    if (config.hasKey("polygon")) {
+      ReadableArray vertices = config.getArray("polygon");
+      return GeofenceRecord.createShape(config.getString("identifier"),
+              GeofenceShape.polygon(getLatitudes(vertices), getLongitudes(vertices), coverRadius),
+              options, group);
+    }
+    if (config.hasKey("corridor")) {
+      // For a corridor, radius is the distance allowed on either side of the path.
+      ReadableArray path = config.getArray("corridor");
+      return GeofenceRecord.createShape(config.getString("identifier"),
+              GeofenceShape.corridor(getLatitudes(path), getLongitudes(path),
+                      (float)config.getDouble("radius"), coverRadius),
+              options, group);
+    }
+    return new GeofenceRecord(config.getString("identifier"),
+            config.getDouble("latitude"),
+            config.getDouble("longitude"),
+            (float)config.getDouble("radius"),
+            null,
+            options,
+            group);
+  }
+
+  private static double[] getLatitudes(ReadableArray points) {
+    double[] latitudes = new double[points.size()];
+    for(int i=0; i<points.size(); i++) {
+      latitudes[i] = points.getMap(i).getDouble("latitude");
+    }
+    return latitudes;
+  }
+
+  private static double[] getLongitudes(ReadableArray points) {
+    double[] longitudes = new double[points.size()];
+    for(int i=0; i<points.size(); i++) {
+      longitudes[i] = points.getMap(i).getDouble("longitude");
+    }
+    return longitudes;
+  }
+
+  static Geofence createGeofence(GeofenceRecord record, int responsivenessMs) {
+    Geofence.Builder builder = new Geofence.Builder()
             // Set the request ID of the geofence. This is a string to identify this geofence.
-            .setRequestId(identifier)
-            .setCircularRegion(latitude, longitude, radius)
-            .setExpirationDuration(Geofence.NEVER_EXPIRE)
-            .setTransitionTypes(Geofence.GEOFENCE_TRANSITION_ENTER | Geofence.GEOFENCE_TRANSITION_EXIT)
-            .build();
+            .setRequestId(record.identifier)
+            .setCircularRegion(record.latitude, record.longitude, record.radius)
+            .setExpirationDuration(getExpirationDuration(record));
+    if (record.options.isDwell()) {
+      builder.setLoiteringDelay(record.options.loiteringDelay);
+    }
+    // 0 keeps the Play Services default.
+    if (responsivenessMs > 0) {
+      builder.setNotificationResponsiveness(responsivenessMs);
+    }
+    return builder.setTransitionTypes(getTransitionTypes(record)).build();
+  }
+
+  static long getExpirationDuration(GeofenceRecord record) {
+    if (!record.options.expires()) return Geofence.NEVER_EXPIRE;
+    // Already expired fences are dropped by the catalog before they get here, but the
+    // clock may have moved on since.
+    return Math.max(1, record.options.expiresAt - System.currentTimeMillis());
+  }
+
+  static int getTransitionTypes(GeofenceRecord record) {
+    // The boundary only exists to tell us when the device leaves the area covered by the
+    // active set.
+    if (GeofenceCatalog.BOUNDARY_IDENTIFIER.equals(record.identifier)) {
+      return Geofence.GEOFENCE_TRANSITION_EXIT;
+    }
+    // Play Services waits out short visits itself and reports DWELL instead of ENTER.
+    if (record.options.isDwell()) {
+      return Geofence.GEOFENCE_TRANSITION_DWELL | Geofence.GEOFENCE_TRANSITION_EXIT;
+    }
+    return Geofence.GEOFENCE_TRANSITION_ENTER | Geofence.GEOFENCE_TRANSITION_EXIT;
   }
-}
\ No newline at end of file
+}
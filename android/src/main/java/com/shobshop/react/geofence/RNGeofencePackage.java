@@ -12,6 +12,8 @@ import com.facebook.react.ReactPackage;
 import com.facebook.react.bridge.NativeModule;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContext;
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.modules.core.DeviceEventManagerModule;
 import com.facebook.react.uimanager.ViewManager;
@@ -43,4 +45,38 @@ public class RNGeofencePackage implements ReactPackage {
                 .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
                 .emit(eventName, params);
     }
+
+    public static void emitTransitionsToRN(ReactContext reactContext, List<GeofenceTransition> transitions) {
+        WritableMap resultMap = Arguments.createMap();
+        resultMap.putArray("transitions", createTransitionArray(transitions));
+        emitMessageToRN(reactContext, RNGeofenceModule.TRANSITIONS, resultMap);
+    }
+
+    /**
+     * Payload of a single Enter/Exit/Dwell event, and of each entry of a transition array.
+     * Location fields are left out when Play Services did not report them.
+     */
+    static WritableMap createTransitionEvent(GeofenceTransition transition) {
+        WritableMap resultMap = Arguments.createMap();
+        resultMap.putString("identifier", transition.identifier);
+        resultMap.putString("event", RNGeofenceModule.getEventName(transition.transition));
+        resultMap.putDouble("time", transition.time);
+        if (transition.hasLocation()) {
+            resultMap.putDouble("latitude", transition.latitude);
+            resultMap.putDouble("longitude", transition.longitude);
+        }
+        if (!Float.isNaN(transition.accuracy)) resultMap.putDouble("accuracy", transition.accuracy);
+        if (!Float.isNaN(transition.speed)) resultMap.putDouble("speed", transition.speed);
+        if (transition.locationTime > 0) resultMap.putDouble("locationTime", transition.locationTime);
+        if (!Float.isNaN(transition.distance)) resultMap.putDouble("distance", transition.distance);
+        return resultMap;
+    }
+
+    static WritableArray createTransitionArray(List<GeofenceTransition> transitions) {
+        WritableArray transitionArray = Arguments.createArray();
+        for (GeofenceTransition transition : transitions) {
+            transitionArray.pushMap(createTransitionEvent(transition));
+        }
+        return transitionArray;
+    }
 }
\ No newline at end of file
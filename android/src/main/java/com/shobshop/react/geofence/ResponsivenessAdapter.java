@@ -0,0 +1,111 @@
+package com.shobshop.react.geofence;
+
+import android.content.Context;
+import android.location.Location;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Adapts the notification responsiveness the fences are registered with to how fast the
+ * device moves, as reported with the triggering location: tight while walking, coarser
+ * at driving speed where Play Services would otherwise check location more often than
+ * the fences need. A change re-registers the active set in one batch, at most once per
+ * minimum interval, since re-registering costs a location check of its own.
+ */
+public class ResponsivenessAdapter {
+    private static final String TAG = "RNGeofenceResponsiveness";
+    // Speed has to drop this far below the threshold of the current level to step down,
+    // so that noise around a threshold does not flip the level on every transition.
+    static final float HYSTERESIS = 0.8f;
+    static final long DEFAULT_MIN_INTERVAL_MS = 5 * 60 * 1000;
+    static final List<Level> DEFAULT_LEVELS = Collections.unmodifiableList(Arrays.asList(
+            new Level(0, 0),
+            new Level(3, 30 * 1000),
+            new Level(15, 2 * 60 * 1000)));
+
+    /**
+     * Responsiveness to register with from a speed in meters per second upwards.
+     */
+    public static final class Level {
+        public final float minSpeed;
+        public final int responsivenessMs;
+
+        public Level(float minSpeed, int responsivenessMs) {
+            this.minSpeed = minSpeed;
+            this.responsivenessMs = responsivenessMs;
+        }
+
+        @Override
+        public String toString() {
+            return minSpeed + "m/s:" + responsivenessMs + "ms";
+        }
+    }
+
+    private ResponsivenessAdapter() {
+    }
+
+    /**
+     * Sort levels by speed, the first one applying from 0.
+     */
+    static List<Level> normalize(List<Level> levels) {
+        ArrayList<Level> sorted = new ArrayList<>(levels);
+        Collections.sort(sorted, new Comparator<Level>() {
+            @Override
+            public int compare(Level a, Level b) {
+                return Float.compare(a.minSpeed, b.minSpeed);
+            }
+        });
+        if (sorted.isEmpty() || sorted.get(0).minSpeed > 0) {
+            sorted.add(0, new Level(0, 0));
+        }
+        return sorted;
+    }
+
+    /**
+     * Responsiveness for the speed, given the one registered now.
+     */
+    static int select(List<Level> levels, int current, float speed) {
+        int target = 0;
+        int currentIndex = -1;
+        for (int i = 0; i < levels.size(); i++) {
+            Level level = levels.get(i);
+            if (speed >= level.minSpeed) target = i;
+            if (level.responsivenessMs == current) currentIndex = i;
+        }
+        if (target < currentIndex && speed >= levels.get(currentIndex).minSpeed * HYSTERESIS) {
+            return current;
+        }
+        return levels.get(target).responsivenessMs;
+    }
+
+    /**
+     * Adapt to the speed at the triggering location, when known. Blocks while the active
+     * set is registered again, so call it from a worker thread.
+     */
+    public static void onLocation(Context context, @Nullable Location location) {
+        GeofenceSettings settings = new GeofenceSettings(context);
+        if (location == null || !location.hasSpeed() || !settings.isAdaptiveResponsivenessEnabled()) {
+            return;
+        }
+        int current = settings.getResponsivenessMs();
+        int target = select(settings.getResponsivenessLevels(), current, location.getSpeed());
+        if (target == current) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - settings.getResponsivenessChangedAt() < settings.getResponsivenessMinIntervalMs()) {
+            Log.i(TAG, "Keep responsiveness " + current + "ms at " + location.getSpeed() + "m/s, changed too recently");
+            return;
+        }
+        Log.i(TAG, "Responsiveness " + current + "ms -> " + target + "ms at " + location.getSpeed() + "m/s");
+        settings.setResponsiveness(target, now);
+        GeofenceMetrics.getInstance().responsivenessChanges.incrementAndGet();
+        GeofenceRegistrar.refresh(context);
+    }
+}
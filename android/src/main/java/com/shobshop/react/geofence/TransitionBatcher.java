@@ -0,0 +1,56 @@
+package com.shobshop.react.geofence;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Collects transitions arriving within one coalescing window so they can be sent to JS
+ * as a single event. An EXIT that follows a pending ENTER on the same identifier cancels
+ * it: the device went in and out again before JS heard about it, so neither is reported.
+ * Not thread safe.
+ */
+public class TransitionBatcher {
+    // Cancelled entries are nulled out instead of shifting the list.
+    private final ArrayList<GeofenceTransition> mPending = new ArrayList<>();
+    private final HashMap<String, Integer> mLastIndex = new HashMap<>();
+    private int mSize;
+
+    public void add(GeofenceTransition transition) {
+        Integer last = mLastIndex.get(transition.identifier);
+        if (last != null && transition.transition == GeofenceTransition.EXIT
+                && mPending.get(last).transition == GeofenceTransition.ENTER) {
+            mPending.set(last, null);
+            mLastIndex.remove(transition.identifier);
+            mSize--;
+            return;
+        }
+        mLastIndex.put(transition.identifier, mPending.size());
+        mPending.add(transition);
+        mSize++;
+    }
+
+    public void addAll(List<GeofenceTransition> transitions) {
+        for (GeofenceTransition transition : transitions) {
+            add(transition);
+        }
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * Return the surviving transitions in arrival order and start a new window.
+     */
+    public List<GeofenceTransition> drain() {
+        ArrayList<GeofenceTransition> result = new ArrayList<>(mSize);
+        for (GeofenceTransition transition : mPending) {
+            if (transition != null) result.add(transition);
+        }
+        mPending.clear();
+        mLastIndex.clear();
+        mSize = 0;
+        return result;
+    }
+}
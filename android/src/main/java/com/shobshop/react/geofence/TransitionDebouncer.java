@@ -0,0 +1,169 @@
+package com.shobshop.react.geofence;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Hysteresis for fences with a debounce. A transition on such a fence is held for the
+ * debounce time; if the opposite transition arrives in the meantime, the device only
+ * flapped across the edge and both are dropped. Held transitions are kept in a file so
+ * they survive the IntentService process being killed while waiting.
+ */
+public class TransitionDebouncer {
+    private static final String TAG = "RNGeofenceDebouncer";
+    private static final String FILE_NAME = "RNGeofence.debounce";
+
+    private static final Object sLock = new Object();
+
+    private final File mFile;
+
+    public TransitionDebouncer(Context context) {
+        this(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+    }
+
+    public TransitionDebouncer(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Pass transitions through the filter. Returns the transitions that are stable now:
+     * those on fences without a debounce, plus held ones whose time is up.
+     */
+    public List<GeofenceTransition> offer(List<GeofenceTransition> transitions, GeofenceCatalog catalog, long now) {
+        synchronized (sLock) {
+            LinkedHashMap<String, Held> held = load();
+            ArrayList<GeofenceTransition> stable = releaseDue(held, now);
+            for (GeofenceTransition transition : transitions) {
+                GeofenceRecord record = catalog.find(transition.identifier);
+                int debounce = record != null ? record.options.debounce : 0;
+                Held previous = held.get(transition.identifier);
+                if (previous != null) {
+                    // The same transition reported again keeps the first deadline.
+                    if (previous.transition.transition != transition.transition) {
+                        Log.i(TAG, "Drop " + transition.identifier + " flap within " + debounce + "ms");
+                        held.remove(transition.identifier);
+                        GeofenceMetrics.getInstance().flapsDropped.incrementAndGet();
+                    }
+                } else if (debounce > 0) {
+                    held.put(transition.identifier, new Held(transition, now + debounce));
+                } else {
+                    stable.add(transition);
+                }
+            }
+            save(held);
+            return stable;
+        }
+    }
+
+    /**
+     * Take the held transitions whose debounce ran out.
+     */
+    public List<GeofenceTransition> release(long now) {
+        synchronized (sLock) {
+            LinkedHashMap<String, Held> held = load();
+            ArrayList<GeofenceTransition> stable = releaseDue(held, now);
+            if (!stable.isEmpty()) save(held);
+            return stable;
+        }
+    }
+
+    /**
+     * Time at which the next held transition is due, or {@link Long#MAX_VALUE} if none is held.
+     */
+    public long nextDeadline() {
+        synchronized (sLock) {
+            long next = Long.MAX_VALUE;
+            for (Held held : load().values()) {
+                next = Math.min(next, held.deadline);
+            }
+            return next;
+        }
+    }
+
+    private static ArrayList<GeofenceTransition> releaseDue(LinkedHashMap<String, Held> held, long now) {
+        ArrayList<GeofenceTransition> due = new ArrayList<>();
+        for (Iterator<Held> it = held.values().iterator(); it.hasNext(); ) {
+            Held entry = it.next();
+            if (entry.deadline <= now) {
+                due.add(entry.transition);
+                it.remove();
+            }
+        }
+        // Held entries are keyed by fence, report them in the order they happened.
+        Collections.sort(due, new Comparator<GeofenceTransition>() {
+            @Override
+            public int compare(GeofenceTransition a, GeofenceTransition b) {
+                return a.time < b.time ? -1 : (a.time == b.time ? 0 : 1);
+            }
+        });
+        return due;
+    }
+
+    private LinkedHashMap<String, Held> load() {
+        LinkedHashMap<String, Held> held = new LinkedHashMap<>();
+        if (!mFile.exists()) return held;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            while (true) {
+                GeofenceTransition transition = GeofenceTransition.readFrom(in);
+                held.put(transition.identifier, new Held(transition, in.readLong()));
+            }
+        } catch (EOFException e) {
+            // End of file.
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot read held transitions", e);
+        } finally {
+            TransitionQueue.closeQuietly(in);
+        }
+        return held;
+    }
+
+    private void save(LinkedHashMap<String, Held> held) {
+        if (held.isEmpty()) {
+            if (mFile.exists() && !mFile.delete()) {
+                Log.w(TAG, "Cannot clear held transitions");
+            }
+            return;
+        }
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile)));
+            for (Held entry : held.values()) {
+                entry.transition.writeTo(out);
+                out.writeLong(entry.deadline);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot write held transitions", e);
+        } finally {
+            TransitionQueue.closeQuietly(out);
+        }
+    }
+
+    private static final class Held {
+        final GeofenceTransition transition;
+        final long deadline;
+
+        Held(GeofenceTransition transition, long deadline) {
+            this.transition = transition;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.shobshop.react.geofence;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounded on-disk log of every transition delivered, so JS can page through what happened
+ * even if it was not listening at the time. Records are appended to the current segment
+ * file; once that is full it becomes the previous segment and the one before is deleted,
+ * so between one and two segments of the latest transitions are kept. A record is
+ * addressed by its offset in the log since it was created, which stays a valid cursor
+ * until its segment is dropped.
+ */
+public class TransitionHistory {
+    private static final String TAG = "RNGeofenceHistory";
+    private static final String FILE_PREFIX = "RNGeofence.history.";
+    // About 7000 transitions per segment with short identifiers.
+    static final int SEGMENT_BYTES = 256 * 1024;
+    public static final int DEFAULT_LIMIT = 100;
+    // Stands for an unknown coordinate.
+    private static final int NO_COORDINATE = Integer.MIN_VALUE;
+    // Time, transition and coordinates; the identifier follows as UTF.
+    private static final int RECORD_HEADER_BYTES = 8 + 1 + 4 + 4;
+
+    private static TransitionHistory sInstance;
+
+    private final File mDirectory;
+    // Segments, oldest first, each named after the log offset of its first record.
+    private final ArrayList<Long> mBases = new ArrayList<>(2);
+    private long mCurrentLength;
+
+    /**
+     * A page of history and the cursor to continue from, which points after the last
+     * record read. It can be kept to poll for newer transitions later.
+     */
+    public static class Page {
+        public final List<GeofenceTransition> transitions = new ArrayList<>();
+        public long cursor;
+    }
+
+    public static synchronized TransitionHistory getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TransitionHistory(context.getApplicationContext().getFilesDir());
+        }
+        return sInstance;
+    }
+
+    public TransitionHistory(File directory) {
+        mDirectory = directory;
+        load();
+    }
+
+    public synchronized void append(List<GeofenceTransition> transitions) {
+        if (transitions.isEmpty()) return;
+        if (mCurrentLength >= SEGMENT_BYTES) {
+            roll();
+        }
+        File file = getCurrentFile();
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+            for (GeofenceTransition transition : transitions) {
+                out.writeLong(transition.time);
+                out.writeByte(transition.transition);
+                out.writeInt(toE7(transition.latitude));
+                out.writeInt(toE7(transition.longitude));
+                out.writeUTF(transition.identifier);
+            }
+            out.close();
+            out = null;
+            mCurrentLength = file.length();
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot append to transition history", e);
+            TransitionQueue.closeQuietly(out);
+            // Drop what made it to disk so the next append starts on a record boundary.
+            mCurrentLength = truncate(file, mCurrentLength);
+        }
+    }
+
+    /**
+     * Read up to limit transitions handled at or after since, starting at cursor, or at the
+     * oldest kept transition when cursor is negative or already dropped. Only the page is
+     * held in memory.
+     */
+    public synchronized Page query(long since, int limit, long cursor) {
+        Page page = new Page();
+        long oldest = mBases.get(0);
+        long position = Math.max(cursor, oldest);
+        page.cursor = position;
+        for (int i = 0; i < mBases.size() && page.transitions.size() < limit; i++) {
+            long base = mBases.get(i);
+            long end = i + 1 < mBases.size() ? mBases.get(i + 1) : base + mCurrentLength;
+            if (position >= end) continue;
+
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(getFile(base))));
+                in.skipBytes((int) (position - base));
+                while (position < end && page.transitions.size() < limit) {
+                    long time = in.readLong();
+                    int transition = in.readByte();
+                    int latitude = in.readInt();
+                    int longitude = in.readInt();
+                    String identifier = in.readUTF();
+                    position += RECORD_HEADER_BYTES + 2 + utfLength(identifier);
+                    if (time >= since) {
+                        page.transitions.add(new GeofenceTransition(identifier, transition, time,
+                                fromE7(latitude), fromE7(longitude)));
+                    }
+                }
+            } catch (EOFException e) {
+                // Torn record at the end of the log.
+                position = end;
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot read transition history", e);
+                position = end;
+            } finally {
+                TransitionQueue.closeQuietly(in);
+            }
+            page.cursor = position;
+        }
+        return page;
+    }
+
+    private void roll() {
+        long base = mBases.get(mBases.size() - 1) + mCurrentLength;
+        if (mBases.size() == 2) {
+            File oldest = getFile(mBases.remove(0));
+            if (!oldest.delete()) {
+                Log.w(TAG, "Cannot delete " + oldest);
+            }
+        }
+        mBases.add(base);
+        mCurrentLength = 0;
+    }
+
+    private void load() {
+        String[] names = mDirectory.list();
+        ArrayList<Long> bases = new ArrayList<>();
+        if (names != null) {
+            for (String name : names) {
+                if (!name.startsWith(FILE_PREFIX)) continue;
+                try {
+                    bases.add(Long.parseLong(name.substring(FILE_PREFIX.length())));
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "Ignore " + name);
+                }
+            }
+        }
+        Long[] sorted = bases.toArray(new Long[0]);
+        Arrays.sort(sorted);
+        for (int i = 0; i < sorted.length; i++) {
+            if (i < sorted.length - 2) {
+                // Left over from a roll that died before deleting it.
+                getFile(sorted[i]).delete();
+            } else {
+                mBases.add(sorted[i]);
+            }
+        }
+        if (mBases.isEmpty()) {
+            mBases.add(0L);
+        }
+        mCurrentLength = truncateTornRecord(getCurrentFile());
+    }
+
+    /**
+     * Cut off a record left incomplete by the process dying mid-append. Returns the length
+     * of the file afterwards.
+     */
+    private static long truncateTornRecord(File file) {
+        if (!file.exists()) return 0;
+        long length = file.length();
+        long valid = 0;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            while (valid < length) {
+                in.skipBytes(RECORD_HEADER_BYTES);
+                String identifier = in.readUTF();
+                valid += RECORD_HEADER_BYTES + 2 + utfLength(identifier);
+            }
+        } catch (IOException e) {
+            // EOF within the last record.
+        } finally {
+            TransitionQueue.closeQuietly(in);
+        }
+        if (valid == length) return length;
+
+        Log.w(TAG, "Drop " + (length - valid) + " bytes of a torn history record");
+        return truncate(file, valid);
+    }
+
+    /**
+     * Returns the length of the file afterwards.
+     */
+    private static long truncate(File file, long length) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(length);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot truncate transition history", e);
+        } finally {
+            TransitionQueue.closeQuietly(raf);
+        }
+        return file.length();
+    }
+
+    private File getCurrentFile() {
+        return getFile(mBases.get(mBases.size() - 1));
+    }
+
+    private File getFile(long base) {
+        return new File(mDirectory, FILE_PREFIX + base);
+    }
+
+    private static int toE7(double coordinate) {
+        return Double.isNaN(coordinate) ? NO_COORDINATE : (int) Math.round(coordinate * 1e7);
+    }
+
+    private static double fromE7(int coordinate) {
+        return coordinate == NO_COORDINATE ? Double.NaN : coordinate / 1e7;
+    }
+
+    /**
+     * Bytes taken by the string in modified UTF-8, as written by writeUTF.
+     */
+    private static int utfLength(String string) {
+        int length = 0;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                length++;
+            } else if (c > 0x07FF) {
+                length += 3;
+            } else {
+                length += 2;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,356 @@
+package com.shobshop.react.geofence;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Transitions waiting to be posted to the configured endpoint by
+ * {@link TransitionOutboxService}, independent of JS. Records are appended to a log and
+ * stay there until the endpoint acknowledged them; the log is only rewritten once most of
+ * it has been sent. A small state file keeps the offset of the first unsent record and
+ * the retry backoff, so both survive the process being killed.
+ */
+public class TransitionOutbox {
+    private static final String TAG = "RNGeofenceOutbox";
+    private static final String FILE_NAME = "RNGeofence.outbox";
+    private static final String STATE_FILE_NAME = "RNGeofence.outbox.state";
+    // Transitions arriving while this much is unsent are dropped, about 10000 of them.
+    static final long MAX_PENDING_BYTES = 1024 * 1024;
+    // Rewrite the log once at least this much of it has been sent.
+    private static final long COMPACT_BYTES = 64 * 1024;
+    static final long MIN_RETRY_DELAY_MS = 30 * 1000;
+    static final long MAX_RETRY_DELAY_MS = 60 * 60 * 1000;
+
+    private static TransitionOutbox sInstance;
+
+    private final File mFile;
+    private final File mStateFile;
+    private final Random mRandom = new Random();
+    // Offset of the first unsent record, and end of the last complete one.
+    private long mHead;
+    private long mLength;
+    private int mCount;
+    private int mFailures;
+    private long mRetryAt;
+    // Bumped whenever offsets stop meaning what they did, so that a batch read before
+    // is not acknowledged against the new log.
+    private int mGeneration;
+
+    /**
+     * Records read from the head of the outbox, to be acknowledged once posted.
+     */
+    public static class Batch {
+        public final List<GeofenceTransition> transitions = new ArrayList<>();
+        long end;
+        int generation;
+    }
+
+    public static synchronized TransitionOutbox getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TransitionOutbox(context.getApplicationContext().getFilesDir());
+        }
+        return sInstance;
+    }
+
+    public TransitionOutbox(File directory) {
+        mFile = new File(directory, FILE_NAME);
+        mStateFile = new File(directory, STATE_FILE_NAME);
+        load();
+    }
+
+    /**
+     * Returns the number of transitions dropped because too much is waiting already.
+     */
+    public synchronized int append(List<GeofenceTransition> transitions) {
+        if (transitions.isEmpty()) return 0;
+        if (mLength - mHead >= MAX_PENDING_BYTES) {
+            Log.w(TAG, "Outbox full, drop " + transitions.size() + " transitions");
+            return transitions.size();
+        }
+        // Each record is length prefixed, so reading knows where it ends.
+        ByteArrayOutputStream record = new ByteArrayOutputStream(64);
+        DataOutputStream recordOut = new DataOutputStream(record);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile, true)));
+            for (GeofenceTransition transition : transitions) {
+                record.reset();
+                transition.writeTo(recordOut);
+                out.writeShort(record.size());
+                record.writeTo(out);
+            }
+            out.close();
+            out = null;
+            mLength = mFile.length();
+            mCount += transitions.size();
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot append to outbox", e);
+            TransitionQueue.closeQuietly(out);
+            // Drop what made it to disk so the next append starts on a record boundary.
+            truncate(mFile, mLength);
+        }
+        return 0;
+    }
+
+    /**
+     * Read up to limit of the oldest unsent transitions, without removing them.
+     */
+    public synchronized Batch peek(int limit) {
+        Batch batch = new Batch();
+        batch.end = mHead;
+        batch.generation = mGeneration;
+        if (mCount == 0) return batch;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            skipFully(in, mHead);
+            byte[] buffer = new byte[256];
+            while (batch.end < mLength && batch.transitions.size() < limit) {
+                int size = in.readUnsignedShort();
+                if (size > buffer.length) buffer = new byte[size];
+                in.readFully(buffer, 0, size);
+                batch.transitions.add(GeofenceTransition.readFrom(
+                        new DataInputStream(new ByteArrayInputStream(buffer, 0, size))));
+                batch.end += 2 + size;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot read outbox", e);
+        } finally {
+            TransitionQueue.closeQuietly(in);
+        }
+        return batch;
+    }
+
+    /**
+     * Remove a batch the endpoint accepted, or rejected for good, and reset the backoff.
+     * A batch read before the outbox was cleared or compacted is ignored.
+     */
+    public synchronized void acknowledge(Batch batch) {
+        if (isStale(batch) || batch.end <= mHead) return;
+        mHead = batch.end;
+        mCount -= batch.transitions.size();
+        mFailures = 0;
+        mRetryAt = 0;
+        if (mHead >= mLength) {
+            // Everything was sent, start over.
+            clear();
+            return;
+        }
+        if (mHead >= COMPACT_BYTES && mHead * 2 >= mLength) {
+            compact();
+        } else {
+            writeState(mHead);
+        }
+    }
+
+    /**
+     * Back off after a failed post: the next attempt is due after a delay that doubles
+     * with each failure in a row, with some jitter so devices do not retry in step.
+     */
+    public synchronized long recordFailure(Batch batch, long now) {
+        if (isStale(batch)) return mRetryAt;
+        return recordFailure(now);
+    }
+
+    /**
+     * Back off without a batch, when the outbox could not be read.
+     */
+    public synchronized long recordFailure(long now) {
+        mFailures++;
+        long delay = Math.min(MAX_RETRY_DELAY_MS, MIN_RETRY_DELAY_MS << Math.min(mFailures - 1, 20));
+        delay += (long) (mRandom.nextDouble() * delay / 4);
+        mRetryAt = now + delay;
+        writeState(mHead);
+        return mRetryAt;
+    }
+
+    public synchronized void clear() {
+        if (mFile.exists() && !mFile.delete()) {
+            Log.w(TAG, "Cannot delete outbox");
+            truncate(mFile, 0);
+        }
+        if (mStateFile.exists() && !mStateFile.delete()) {
+            Log.w(TAG, "Cannot delete outbox state");
+        }
+        mHead = 0;
+        mLength = 0;
+        mCount = 0;
+        mFailures = 0;
+        mRetryAt = 0;
+        mGeneration++;
+    }
+
+    public synchronized int size() {
+        return mCount;
+    }
+
+    /**
+     * When the backoff allows the next attempt, 0 when there was no failure since the
+     * last acknowledged batch.
+     */
+    public synchronized long getRetryAt() {
+        return mRetryAt;
+    }
+
+    /**
+     * Time the oldest unsent transition was handled, Long.MAX_VALUE when there is none.
+     */
+    public synchronized long getOldestTime() {
+        Batch batch = peek(1);
+        return batch.transitions.isEmpty() ? Long.MAX_VALUE : batch.transitions.get(0).time;
+    }
+
+    private void load() {
+        DataInputStream in = null;
+        if (mStateFile.exists()) {
+            try {
+                in = new DataInputStream(new FileInputStream(mStateFile));
+                mHead = in.readLong();
+                mFailures = in.readInt();
+                mRetryAt = in.readLong();
+            } catch (IOException e) {
+                // Resending a batch is better than losing one.
+                Log.w(TAG, "Cannot read outbox state, resend from the start", e);
+                mHead = 0;
+                mFailures = 0;
+                mRetryAt = 0;
+            } finally {
+                TransitionQueue.closeQuietly(in);
+            }
+        }
+        mLength = 0;
+        mCount = 0;
+        if (!mFile.exists()) {
+            mHead = 0;
+            return;
+        }
+        long length = mFile.length();
+        if (mHead > length) mHead = 0;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            skipFully(in, mHead);
+            mLength = mHead;
+            byte[] buffer = new byte[256];
+            while (mLength < length) {
+                int size = in.readUnsignedShort();
+                if (size > buffer.length) buffer = new byte[size];
+                // Read rather than skip, skipping does not stop at the end of the file.
+                in.readFully(buffer, 0, size);
+                mLength += 2 + size;
+                mCount++;
+            }
+        } catch (IOException e) {
+            // EOF within the last record.
+        } finally {
+            TransitionQueue.closeQuietly(in);
+        }
+        if (mLength != length) {
+            Log.w(TAG, "Drop " + (length - mLength) + " bytes of a torn outbox record");
+            truncate(mFile, mLength);
+        }
+    }
+
+    /**
+     * Copy the unsent records to a new log.
+     */
+    private void compact() {
+        File tmp = new File(mFile.getPath() + ".tmp");
+        FileInputStream in = null;
+        FileOutputStream out = null;
+        try {
+            in = new FileInputStream(mFile);
+            out = new FileOutputStream(tmp);
+            skipFully(in, mHead);
+            byte[] buffer = new byte[8192];
+            long remaining = mLength - mHead;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) throw new EOFException();
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+            out.close();
+            out = null;
+            // Point the state at the start first: dying before the rename then only resends
+            // what was already sent, rather than reading the new log at the old offset.
+            writeState(0);
+            if (!tmp.renameTo(mFile)) {
+                throw new IOException("Cannot replace " + mFile);
+            }
+            mLength -= mHead;
+            mHead = 0;
+            mGeneration++;
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot compact outbox", e);
+            writeState(mHead);
+        } finally {
+            TransitionQueue.closeQuietly(in);
+            TransitionQueue.closeQuietly(out);
+        }
+    }
+
+    private boolean isStale(Batch batch) {
+        return batch.generation != mGeneration || batch.end > mLength;
+    }
+
+    private void writeState(long head) {
+        File tmp = new File(mStateFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(tmp));
+            out.writeLong(head);
+            out.writeInt(mFailures);
+            out.writeLong(mRetryAt);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(mStateFile)) {
+                throw new IOException("Cannot replace " + mStateFile);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot write outbox state", e);
+        } finally {
+            TransitionQueue.closeQuietly(out);
+        }
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) throw new EOFException();
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    private static void truncate(File file, long length) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(length);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot truncate outbox", e);
+        } finally {
+            TransitionQueue.closeQuietly(raf);
+        }
+    }
+}
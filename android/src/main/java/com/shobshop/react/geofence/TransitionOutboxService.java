@@ -0,0 +1,91 @@
+package com.shobshop.react.geofence;
+
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Background worker that posts the {@link TransitionOutbox} to the configured endpoint.
+ * Started right away once a full batch is waiting, otherwise by an alarm when the oldest
+ * waiting transition is a flush interval old, and never before the retry backoff allows.
+ * Kept apart from {@link GeofenceTransitionsIntentService} so a slow endpoint does not
+ * hold up transitions.
+ */
+public class TransitionOutboxService extends IntentService {
+    private static final String TAG = "RNGeofenceOutboxService";
+    // Post even when backing off, for flushOutbox().
+    static final String EXTRA_FORCE = "force";
+
+    public TransitionOutboxService() {
+        super("TransitionOutboxService");
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        GeofenceSettings settings = new GeofenceSettings(this);
+        String url = settings.getOutboxUrl();
+        TransitionOutbox outbox = TransitionOutbox.getInstance(this);
+        if (url == null) {
+            return;
+        }
+        boolean force = intent != null && intent.getBooleanExtra(EXTRA_FORCE, false);
+        if (force || outbox.getRetryAt() <= System.currentTimeMillis()) {
+            TransitionUploader.Result result = new TransitionUploader(url, settings.getOutboxHeaders())
+                    .flush(outbox, settings.getOutboxBatchSize());
+            Log.i(TAG, "Sent " + result.sent + " transitions, " + outbox.size() + " left");
+            GeofenceMetrics metrics = GeofenceMetrics.getInstance();
+            metrics.outboxSent.addAndGet(result.sent);
+            metrics.outboxRejected.addAndGet(result.rejected);
+            if (result.failed) {
+                metrics.outboxFailures.incrementAndGet();
+            } else if (result.sent == 0 && result.rejected == 0 && outbox.size() > 0) {
+                // The outbox could not be read: back off rather than start again right away.
+                outbox.recordFailure(System.currentTimeMillis());
+            }
+        }
+        schedule(this);
+    }
+
+    /**
+     * Start the worker now or set the alarm for when the outbox is next due. Replaces any
+     * earlier alarm.
+     */
+    public static void schedule(Context context) {
+        context = context.getApplicationContext();
+        GeofenceSettings settings = new GeofenceSettings(context);
+        TransitionOutbox outbox = TransitionOutbox.getInstance(context);
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent pendingIntent = PendingIntent.getService(context, 2,
+                new Intent(context, TransitionOutboxService.class), PendingIntent.FLAG_UPDATE_CURRENT);
+        int pending = outbox.size();
+        if (settings.getOutboxUrl() == null || pending == 0) {
+            alarmManager.cancel(pendingIntent);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long deadline = pending >= settings.getOutboxBatchSize()
+                ? now
+                : outbox.getOldestTime() + settings.getOutboxFlushIntervalMs();
+        deadline = Math.max(deadline, outbox.getRetryAt());
+        if (deadline <= now) {
+            alarmManager.cancel(pendingIntent);
+            context.startService(new Intent(context, TransitionOutboxService.class));
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            alarmManager.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, deadline, pendingIntent);
+        } else {
+            alarmManager.set(AlarmManager.RTC_WAKEUP, deadline, pendingIntent);
+        }
+    }
+
+    /**
+     * Post everything waiting now, ignoring the flush interval and any backoff.
+     */
+    public static void flush(Context context) {
+        context.startService(new Intent(context, TransitionOutboxService.class).putExtra(EXTRA_FORCE, true));
+    }
+}
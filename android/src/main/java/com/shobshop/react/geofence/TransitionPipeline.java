@@ -0,0 +1,293 @@
+package com.shobshop.react.geofence;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.location.Location;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.facebook.react.ReactApplication;
+import com.facebook.react.ReactInstanceManager;
+import com.facebook.react.ReactNativeHost;
+import com.facebook.react.bridge.ReactContext;
+import com.facebook.react.bridge.UiThreadUtil;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything that happens to a geofencing event once the backend reported it: active
+ * set rotation, cluster and shape resolution, debounce, persistence and delivery to JS
+ * and, when configured, to the {@link TransitionOutbox}.
+ * Fed by {@link GeofenceTransitionsIntentService} for Play Services events. The
+ * {@link GeofenceSimulator} feeds replayed events to a pipeline of its own, with its own
+ * catalog, rotation and sink. Must be called from a worker thread.
+ */
+public class TransitionPipeline {
+    private static final String TAG = "RNGeofencePipeline";
+
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+    // Shared across instances: the window may outlive the IntentService. Stays set while
+    // a due flush waits for React to come back.
+    private static boolean sFlushScheduled;
+
+    /**
+     * Registers the fences around the device once it left the boundary.
+     */
+    public interface Rotator {
+        void rotate(@Nullable Location location);
+    }
+
+    /**
+     * Takes the transitions that passed debounce, in the order they happened.
+     */
+    public interface Sink {
+        void deliver(List<GeofenceTransition> transitions);
+    }
+
+    private final GeofenceCatalog mCatalog;
+    private final TransitionDebouncer mDebouncer;
+    private final Rotator mRotator;
+    private final Sink mSink;
+    // Only set for the live pipeline.
+    private final Context mContext;
+    private final ReactNativeHost mReactNativeHost;
+    private final GeofenceSettings mSettings;
+    private final TransitionQueue mQueue;
+
+    /**
+     * The live pipeline: the shared catalog, Play Services through the command queue, and
+     * the history, queue, outbox and JS as the sink.
+     */
+    public TransitionPipeline(Context context) {
+        mContext = context.getApplicationContext();
+        mReactNativeHost = ((ReactApplication) mContext).getReactNativeHost();
+        mSettings = new GeofenceSettings(mContext);
+        mQueue = new TransitionQueue(mContext);
+        mCatalog = GeofenceCatalog.getInstance(mContext);
+        mDebouncer = new TransitionDebouncer(mContext);
+        mRotator = new Rotator() {
+            @Override
+            public void rotate(@Nullable Location location) {
+                GeofenceRegistrar.rotate(mContext, location);
+            }
+        };
+        mSink = new Sink() {
+            @Override
+            public void deliver(List<GeofenceTransition> transitions) {
+                deliverToApp(transitions);
+            }
+        };
+    }
+
+    /**
+     * A pipeline that touches nothing but what it is given. There is no alarm for held
+     * transitions and no notification responsiveness: call {@link #releaseHeld()} as time
+     * passes.
+     */
+    public TransitionPipeline(GeofenceCatalog catalog, TransitionDebouncer debouncer, Rotator rotator, Sink sink) {
+        mCatalog = catalog;
+        mDebouncer = debouncer;
+        mRotator = rotator;
+        mSink = sink;
+        mContext = null;
+        mReactNativeHost = null;
+        mSettings = null;
+        mQueue = null;
+    }
+
+    /**
+     * Handle one event: the given fences all reported the same transition at the location,
+     * which may be null when the backend did not say.
+     */
+    public void process(int geofenceTransition, List<String> identifiers, @Nullable Location location) {
+        if (geofenceTransition == GeofenceTransition.EXIT && identifiers.contains(GeofenceCatalog.BOUNDARY_IDENTIFIER)) {
+            mRotator.rotate(location);
+        }
+        // After any rotation, so that a change re-registers the new active set.
+        if (mContext != null) ResponsivenessAdapter.onLocation(mContext, location);
+
+        // Drop the boundary and resolve cluster parents into their children here, on the
+        // worker thread, so React is only started when there is something to deliver.
+        List<GeofenceTransition> resolved = mCatalog.resolveTransitions(identifiers, geofenceTransition, location);
+        if (resolved.isEmpty()) {
+            return;
+        }
+        // Fences with a debounce only report once the transition has held.
+        List<GeofenceTransition> transitions = mDebouncer.offer(resolved, mCatalog, System.currentTimeMillis());
+        scheduleRelease();
+        if (!transitions.isEmpty()) mSink.deliver(transitions);
+    }
+
+    /**
+     * Deliver the debounced transitions that are due.
+     */
+    public void releaseHeld() {
+        List<GeofenceTransition> released = mDebouncer.release(System.currentTimeMillis());
+        scheduleRelease();
+        if (!released.isEmpty()) mSink.deliver(released);
+    }
+
+    /**
+     * Deliver the transitions that were queued while React was not running, or while it
+     * was not woken for them, to the given context. Used once JS listens for transitions.
+     */
+    public void deliverQueued(final ReactContext reactContext) {
+        UiThreadUtil.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                handleGeofenceEvent(reactContext, false, Collections.<GeofenceTransition>emptyList());
+            }
+        });
+    }
+
+    private void deliverToApp(final List<GeofenceTransition> transitions) {
+        // Persist first: from here on the transitions survive the process being killed.
+        TransitionHistory.getInstance(mContext).append(transitions);
+        mQueue.append(transitions);
+        if (mSettings.getOutboxUrl() != null) {
+            int dropped = TransitionOutbox.getInstance(mContext).append(transitions);
+            GeofenceMetrics.getInstance().outboxDropped.addAndGet(dropped);
+            TransitionOutboxService.schedule(mContext);
+        }
+
+        final ReactInstanceManager reactInstanceManager = mReactNativeHost.getReactInstanceManager();
+        if (reactInstanceManager.getCurrentReactContext() == null && !mSettings.isWakeOnTransitionEnabled()) {
+            Log.i(TAG, "React is not running, keep " + transitions.size() + " transitions queued");
+            GeofenceMetrics.getInstance().transitionsQueued.addAndGet(transitions.size());
+            return;
+        }
+
+        Runnable myRunnable = new Runnable() {
+            @Override
+            public void run() {
+            ReactContext reactContext = reactInstanceManager.getCurrentReactContext();
+
+            if (reactContext == null) {
+                GeofenceMetrics.getInstance().coldStarts.incrementAndGet();
+                reactInstanceManager
+                        .addReactInstanceEventListener(new ReactInstanceManager.ReactInstanceEventListener() {
+                            @Override
+                            public void onReactContextInitialized(ReactContext reactContext) {
+                                handleGeofenceEvent(reactContext, true, transitions);
+                                reactInstanceManager.removeReactInstanceEventListener(this);
+                            }
+                        });
+                if (!reactInstanceManager.hasStartedCreatingInitialContext()) {
+                    reactInstanceManager.createReactContextInBackground();
+                }
+            } else {
+                handleGeofenceEvent(reactContext, false, transitions);
+            }
+            }
+        };
+
+        UiThreadUtil.runOnUiThread(myRunnable);
+    }
+
+    /**
+     * Deliver everything in the queue, including transitions that piled up while React
+     * was not running. Another event may already have drained them, in which case there
+     * is nothing to do. The ready latency only counts the transitions of the event that
+     * asked for React, not those that sat in the queue before it.
+     */
+    private void handleGeofenceEvent(ReactContext reactContext, boolean coldStart,
+                                     List<GeofenceTransition> triggering) {
+        GeofenceMetrics metrics = GeofenceMetrics.getInstance();
+        LatencyHistogram readyLatency = coldStart ? metrics.coldReadyLatency : metrics.warmReadyLatency;
+        long now = System.currentTimeMillis();
+        for (GeofenceTransition transition : triggering) {
+            readyLatency.record(now - transition.time);
+        }
+        if (mSettings.isEventBatchingEnabled()) {
+            scheduleBatchFlush(mReactNativeHost.getReactInstanceManager(), mQueue, mSettings.getBatchWindowMs());
+            return;
+        }
+        List<GeofenceTransition> transitions = mQueue.drain();
+        if (transitions.isEmpty()) {
+            return;
+        }
+        for (GeofenceTransition transition : transitions) {
+            RNGeofencePackage.emitMessageToRN(reactContext, RNGeofenceModule.getEventName(transition.transition),
+                    RNGeofencePackage.createTransitionEvent(transition));
+        }
+        recordDelivered(transitions);
+    }
+
+    static void recordDelivered(List<GeofenceTransition> transitions) {
+        GeofenceMetrics metrics = GeofenceMetrics.getInstance();
+        long now = System.currentTimeMillis();
+        for (GeofenceTransition transition : transitions) {
+            metrics.deliveryLatency.record(now - transition.time);
+        }
+        metrics.transitionsDelivered.addAndGet(transitions.size());
+    }
+
+    /**
+     * Send what is in the queue as a single TRANSITIONS event once one coalescing window
+     * has passed. The transitions stay in the queue until then, so they survive the
+     * process being killed within the window. Runs on the UI thread.
+     */
+    private static void scheduleBatchFlush(final ReactInstanceManager reactInstanceManager,
+                                           final TransitionQueue queue, long windowMs) {
+        if (sFlushScheduled) return;
+
+        sFlushScheduled = true;
+        sHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                ReactContext reactContext = reactInstanceManager.getCurrentReactContext();
+                if (reactContext != null) {
+                    sFlushScheduled = false;
+                    flushBatch(reactContext, queue);
+                    return;
+                }
+                // Flush as soon as React is back rather than on the next transition.
+                Log.w(TAG, "React context went away, hold batched transitions until it is back");
+                reactInstanceManager.addReactInstanceEventListener(new ReactInstanceManager.ReactInstanceEventListener() {
+                    @Override
+                    public void onReactContextInitialized(ReactContext reactContext) {
+                        reactInstanceManager.removeReactInstanceEventListener(this);
+                        sFlushScheduled = false;
+                        flushBatch(reactContext, queue);
+                    }
+                });
+            }
+        }, windowMs);
+    }
+
+    private static void flushBatch(ReactContext reactContext, TransitionQueue queue) {
+        TransitionBatcher batcher = new TransitionBatcher();
+        batcher.addAll(queue.drain());
+        List<GeofenceTransition> batch = batcher.drain();
+        if (!batch.isEmpty()) {
+            RNGeofencePackage.emitTransitionsToRN(reactContext, batch);
+            recordDelivered(batch);
+        }
+    }
+
+    /**
+     * Wake the IntentService when the next held transition is due. Replaces any earlier alarm.
+     */
+    private void scheduleRelease() {
+        if (mContext == null) return;
+        long deadline = mDebouncer.nextDeadline();
+        AlarmManager alarmManager = (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent pendingIntent = PendingIntent.getService(mContext, 1,
+                new Intent(mContext, GeofenceTransitionsIntentService.class)
+                        .setAction(GeofenceTransitionsIntentService.ACTION_RELEASE_HELD),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        if (deadline == Long.MAX_VALUE) {
+            alarmManager.cancel(pendingIntent);
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            alarmManager.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, deadline, pendingIntent);
+        } else {
+            alarmManager.set(AlarmManager.RTC_WAKEUP, deadline, pendingIntent);
+        }
+    }
+}
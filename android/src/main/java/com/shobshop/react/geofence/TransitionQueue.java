@@ -0,0 +1,97 @@
+package com.shobshop.react.geofence;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Transitions that have not been delivered to JS yet, appended to a file as soon as the
+ * IntentService resolves them so that they survive the process being killed before React
+ * is up. The whole queue is handed over at once when JS is ready for it.
+ */
+public class TransitionQueue {
+    private static final String TAG = "RNGeofenceQueue";
+    private static final String FILE_NAME = "RNGeofence.transitions";
+
+    // The service worker thread appends while the UI thread drains.
+    private static final Object sLock = new Object();
+
+    private final File mFile;
+
+    public TransitionQueue(Context context) {
+        this(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+    }
+
+    public TransitionQueue(File file) {
+        mFile = file;
+    }
+
+    public void append(List<GeofenceTransition> transitions) {
+        synchronized (sLock) {
+            DataOutputStream out = null;
+            try {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile, true)));
+                for (GeofenceTransition transition : transitions) {
+                    transition.writeTo(out);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot append transitions", e);
+            } finally {
+                closeQuietly(out);
+            }
+        }
+    }
+
+    /**
+     * Read every queued transition and empty the queue.
+     */
+    public List<GeofenceTransition> drain() {
+        synchronized (sLock) {
+            ArrayList<GeofenceTransition> transitions = new ArrayList<>();
+            if (mFile.exists()) {
+                read(mFile, transitions);
+            }
+            return transitions;
+        }
+    }
+
+    private static void read(File file, List<GeofenceTransition> transitions) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            while (true) {
+                transitions.add(GeofenceTransition.readFrom(in));
+            }
+        } catch (EOFException e) {
+            // End of queue. A record cut short by the process dying mid-write ends up
+            // here too and is dropped.
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot read queued transitions", e);
+        } finally {
+            closeQuietly(in);
+        }
+        if (!file.delete()) {
+            Log.w(TAG, "Cannot clear transition queue");
+        }
+    }
+
+    static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.shobshop.react.geofence;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Posts the {@link TransitionOutbox} to an HTTP endpoint as JSON, a batch per request:
+ * {@code {"transitions": [{"identifier", "event", "time", "latitude", ...}]}} with event
+ * one of enter, exit or dwell and the same optional location fields as the JS events.
+ * Any 2xx response acknowledges the batch.
+ */
+public class TransitionUploader {
+    private static final String TAG = "RNGeofenceUploader";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int CONNECT_TIMEOUT_MS = 15 * 1000;
+    private static final int READ_TIMEOUT_MS = 30 * 1000;
+
+    private final String mUrl;
+    private final Map<String, String> mHeaders;
+
+    /**
+     * Outcome of a flush.
+     */
+    public static class Result {
+        public int sent;
+        // Transitions in batches the endpoint refused for good, which are not retried.
+        public int rejected;
+        // Whether a batch failed and is left for a retry after the backoff.
+        public boolean failed;
+    }
+
+    public TransitionUploader(String url, Map<String, String> headers) {
+        mUrl = url;
+        mHeaders = headers;
+    }
+
+    /**
+     * Post batches until the outbox is empty or a post fails. Blocks on the network, so
+     * call it from a worker thread.
+     */
+    public Result flush(TransitionOutbox outbox, int batchSize) {
+        Result result = new Result();
+        while (true) {
+            TransitionOutbox.Batch batch = outbox.peek(batchSize);
+            if (batch.transitions.isEmpty()) break;
+
+            int status;
+            try {
+                status = post(toJson(batch.transitions));
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot post " + batch.transitions.size() + " transitions", e);
+                status = -1;
+            }
+            if (status >= 200 && status < 300) {
+                outbox.acknowledge(batch);
+                result.sent += batch.transitions.size();
+            } else if (isPermanentFailure(status)) {
+                // Sending the same batch again would fail the same way and hold up the rest.
+                Log.e(TAG, "Endpoint rejected " + batch.transitions.size() + " transitions with " + status);
+                outbox.acknowledge(batch);
+                result.rejected += batch.transitions.size();
+            } else {
+                Log.w(TAG, "Post failed with " + status + ", retry later");
+                outbox.recordFailure(batch, System.currentTimeMillis());
+                result.failed = true;
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the response status.
+     */
+    int post(byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(mUrl).openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            for (Map.Entry<String, String> header : mHeaders.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+            int status = connection.getResponseCode();
+            // Read the body so the connection can be reused.
+            InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            if (in != null) {
+                try {
+                    byte[] buffer = new byte[1024];
+                    while (in.read(buffer) >= 0) {
+                        // Discard.
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+            return status;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Client errors other than a timeout or rate limit will not go away by retrying.
+     */
+    static boolean isPermanentFailure(int status) {
+        return status >= 400 && status < 500 && status != 408 && status != 429;
+    }
+
+    static byte[] toJson(List<GeofenceTransition> transitions) {
+        StringBuilder json = new StringBuilder(64 + transitions.size() * 160);
+        json.append("{\"transitions\":[");
+        for (int i = 0; i < transitions.size(); i++) {
+            GeofenceTransition transition = transitions.get(i);
+            if (i > 0) json.append(',');
+            json.append("{\"identifier\":");
+            appendString(json, transition.identifier);
+            json.append(",\"event\":\"").append(getEventName(transition.transition)).append('"');
+            json.append(",\"time\":").append(transition.time);
+            if (transition.hasLocation()) {
+                json.append(",\"latitude\":").append(transition.latitude);
+                json.append(",\"longitude\":").append(transition.longitude);
+            }
+            if (!Float.isNaN(transition.accuracy)) json.append(",\"accuracy\":").append(transition.accuracy);
+            if (!Float.isNaN(transition.speed)) json.append(",\"speed\":").append(transition.speed);
+            if (transition.locationTime > 0) json.append(",\"locationTime\":").append(transition.locationTime);
+            if (!Float.isNaN(transition.distance)) json.append(",\"distance\":").append(transition.distance);
+            json.append('}');
+        }
+        json.append("]}");
+        return json.toString().getBytes(UTF_8);
+    }
+
+    private static String getEventName(int transition) {
+        switch (transition) {
+            case GeofenceTransition.ENTER:
+                return "enter";
+            case GeofenceTransition.EXIT:
+                return "exit";
+            case GeofenceTransition.DWELL:
+                return "dwell";
+            default:
+                return "unknown";
+        }
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,200 @@
+package com.shobshop.react.geofence;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class GeofenceCatalogTest {
+    private static final double LATITUDE = 13.7446;
+    private static final double LONGITUDE = 100.5298;
+    private static final float CLUSTER_RADIUS = 300;
+    private static final long HOUR_MS = 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static GeofenceRecord fence(String identifier, double east, float radius) {
+        // About 108 meters per 0.001 degree of longitude at this latitude.
+        return new GeofenceRecord(identifier, LATITUDE, LONGITUDE + east, radius);
+    }
+
+    private static GeofenceRecord fence(String identifier, float radius, GeofenceOptions options) {
+        return new GeofenceRecord(identifier, LATITUDE, LONGITUDE, radius, null, options);
+    }
+
+    // As createGeofenceRecord builds it for an expirationDuration given at the time.
+    private static GeofenceOptions expiringIn(long duration, long now) {
+        return new GeofenceOptions(0, 0, 0, now + duration, duration);
+    }
+
+    @Test
+    public void syncKeepsUnchangedSiblingsOfAReclusteredFence() {
+        GeofenceCatalog catalog = new GeofenceCatalog(GeofenceCatalog.MAX_REGISTERED_GEOFENCES);
+        catalog.sync(Arrays.asList(fence("A", 0, 50), fence("B", 0.001, 50)), CLUSTER_RADIUS);
+        assertEquals(1, catalog.size());
+
+        GeofenceCatalog.SyncResult result = catalog.sync(Arrays.asList(
+                fence("A", 0, 60), fence("B", 0.001, 50), fence("C", 0.0005, 50)), CLUSTER_RADIUS);
+
+        assertEquals(1, result.added);
+        assertEquals(1, result.changed);
+        assertEquals(1, result.unchanged);
+        assertEquals(new HashSet<>(Arrays.asList("A", "B", "C")), catalog.getState().identifiers);
+        assertNotNull(catalog.find("B"));
+        assertEquals(60, catalog.find("A").radius, 0);
+    }
+
+    @Test
+    public void addKeepsSiblingsOfAReclusteredFence() {
+        GeofenceCatalog catalog = new GeofenceCatalog(GeofenceCatalog.MAX_REGISTERED_GEOFENCES);
+        catalog.putAll(GeofenceClusterer.cluster(
+                Arrays.asList(fence("A", 0, 50), fence("B", 0.001, 50)), CLUSTER_RADIUS));
+
+        catalog.putAll(GeofenceClusterer.cluster(
+                Arrays.asList(fence("A", 0, 60), fence("C", 0.0005, 50)), CLUSTER_RADIUS));
+
+        assertEquals(new HashSet<>(Arrays.asList("A", "B", "C")), catalog.getState().identifiers);
+        // Every fence is reachable through a registered record.
+        ActiveSetPlan plan = catalog.plan(LATITUDE, LONGITUDE);
+        HashSet<String> covered = new HashSet<>();
+        for (GeofenceRecord record : plan.addRecords) {
+            if (record.isCluster()) {
+                for (GeofenceRecord child : record.children) covered.add(child.identifier);
+            } else {
+                covered.add(record.identifier);
+            }
+        }
+        assertTrue(covered.containsAll(Arrays.asList("A", "B", "C")));
+    }
+
+    @Test
+    public void reclusteringAllChildrenReplacesTheParent() {
+        GeofenceCatalog catalog = new GeofenceCatalog(GeofenceCatalog.MAX_REGISTERED_GEOFENCES);
+        catalog.sync(Arrays.asList(fence("A", 0, 50), fence("B", 0.001, 50)), CLUSTER_RADIUS);
+
+        catalog.sync(Arrays.asList(fence("A", 0, 60), fence("B", 0.001, 60)), CLUSTER_RADIUS);
+
+        assertEquals(1, catalog.size());
+        assertEquals(new HashSet<>(Arrays.asList("A", "B")), catalog.getState().identifiers);
+    }
+
+    @Test
+    public void syncWithTheSameExpirationDurationChangesNothing() {
+        GeofenceCatalog catalog = new GeofenceCatalog(GeofenceCatalog.MAX_REGISTERED_GEOFENCES);
+        long now = System.currentTimeMillis();
+        catalog.sync(Collections.singletonList(fence("A", 50, expiringIn(HOUR_MS, now))), 0);
+        catalog.plan(LATITUDE, LONGITUDE);
+
+        GeofenceCatalog.SyncResult result = catalog.sync(
+                Collections.singletonList(fence("A", 50, expiringIn(HOUR_MS, now + 5000))), 0);
+
+        assertEquals(1, result.unchanged);
+        assertTrue(catalog.plan(LATITUDE, LONGITUDE).isEmpty());
+        assertEquals(now + HOUR_MS, catalog.find("A").options.expiresAt);
+    }
+
+    @Test
+    public void changedFenceKeepsItsExpirationTime() {
+        GeofenceCatalog catalog = new GeofenceCatalog(GeofenceCatalog.MAX_REGISTERED_GEOFENCES);
+        long now = System.currentTimeMillis();
+        catalog.putAll(Collections.singletonList(fence("A", 50, expiringIn(HOUR_MS, now))));
+
+        catalog.putAll(Collections.singletonList(fence("A", 60, expiringIn(HOUR_MS, now + 5000))));
+        assertEquals(now + HOUR_MS, catalog.find("A").options.expiresAt);
+
+        catalog.putAll(Collections.singletonList(fence("A", 60, expiringIn(2 * HOUR_MS, now + 5000))));
+        assertEquals(now + 5000 + 2 * HOUR_MS, catalog.find("A").options.expiresAt);
+    }
+
+    @Test
+    public void debounceChangeIsNotRegisteredAgain() {
+        GeofenceCatalog catalog = new GeofenceCatalog(GeofenceCatalog.MAX_REGISTERED_GEOFENCES);
+        catalog.sync(Collections.singletonList(fence("A", 50, new GeofenceOptions(0, 0))), 0);
+        catalog.plan(LATITUDE, LONGITUDE);
+
+        GeofenceCatalog.SyncResult result = catalog.sync(
+                Collections.singletonList(fence("A", 50, new GeofenceOptions(0, 30000))), 0);
+
+        assertEquals(1, result.changed);
+        assertEquals(30000, catalog.find("A").options.debounce);
+        assertTrue(catalog.plan(LATITUDE, LONGITUDE).isEmpty());
+    }
+
+    @Test
+    public void expirationDurationSurvivesTheRegistry() throws Exception {
+        File file = new File(mFolder.getRoot(), "registry");
+        long now = System.currentTimeMillis();
+        GeofenceCatalog catalog = new GeofenceCatalog(GeofenceCatalog.MAX_REGISTERED_GEOFENCES);
+        catalog.attachRegistry(new GeofenceRegistry(file));
+        catalog.sync(Collections.singletonList(fence("A", 50, expiringIn(HOUR_MS, now))), 0);
+
+        GeofenceCatalog restarted = new GeofenceCatalog(GeofenceCatalog.MAX_REGISTERED_GEOFENCES);
+        restarted.attachRegistry(new GeofenceRegistry(file));
+        GeofenceCatalog.SyncResult result = restarted.sync(
+                Collections.singletonList(fence("A", 50, expiringIn(HOUR_MS, now + 5000))), 0);
+
+        assertEquals(1, result.unchanged);
+        assertEquals(now + HOUR_MS, restarted.find("A").options.expiresAt);
+    }
+
+    @Test
+    public void publishedChangesKeepACopyOfTheState() {
+        GeofenceCatalog catalog = new GeofenceCatalog(GeofenceCatalog.MAX_REGISTERED_GEOFENCES);
+        catalog.sync(Arrays.asList(fence("A", 0, 50), fence("B", 0.001, 50)), CLUSTER_RADIUS);
+        GeofenceCatalog.State start = catalog.getState();
+        final List<GeofenceCatalog.StateChange> changes = new ArrayList<>();
+        GeofenceCatalog.setStateListener(new GeofenceCatalog.StateListener() {
+            @Override
+            public void onStateChanged(GeofenceCatalog.StateChange change) {
+                changes.add(change);
+            }
+
+            @Override
+            public void onEvicted(List<String> evicted, List<String> expired) {
+            }
+        });
+        try {
+            catalog.putAll(Collections.singletonList(fence("D", 0.05, 50)));
+            catalog.plan(LATITUDE, LONGITUDE);
+            // The device is in A, which is registered through the cluster it shares with B.
+            catalog.resolveTransitions(Collections.singletonList(GeofenceClusterer.CLUSTER_PREFIX + "A"),
+                    GeofenceTransition.ENTER, GeofenceSimulator.createLocation(LATITUDE, LONGITUDE, 0));
+            catalog.sync(Arrays.asList(fence("A", 0, 60), fence("C", 0.0005, 50), fence("D", 0.05, 50)),
+                    CLUSTER_RADIUS);
+            catalog.remove("D");
+        } finally {
+            GeofenceCatalog.setStateListener(null);
+        }
+
+        // One put publishes that fence alone.
+        assertEquals(Collections.singleton("D"), changes.get(0).added);
+        assertTrue(changes.get(0).removed.isEmpty());
+
+        GeofenceCatalog.StateChange merged = changes.get(0);
+        for (GeofenceCatalog.StateChange change : changes.subList(1, changes.size())) merged.merge(change);
+        HashSet<String> identifiers = new HashSet<>(start.identifiers);
+        identifiers.removeAll(merged.removed);
+        identifiers.addAll(merged.added);
+        HashSet<String> inside = new HashSet<>(start.inside);
+        inside.removeAll(merged.exited);
+        inside.addAll(merged.entered);
+        GeofenceCatalog.State end = catalog.getState();
+        assertEquals(end.identifiers, identifiers);
+        assertEquals(end.inside, inside);
+        assertEquals(end.version, merged.version);
+        assertEquals(new HashSet<>(Arrays.asList("A", "C")), end.identifiers);
+        // Planning changes neither set, so the transition comes right after the put.
+        assertEquals(Collections.singleton("A"), changes.get(1).entered);
+    }
+}
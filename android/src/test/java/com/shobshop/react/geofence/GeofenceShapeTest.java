@@ -0,0 +1,123 @@
+package com.shobshop.react.geofence;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GeofenceShapeTest {
+    private static final double LATITUDE = 13.7446;
+    private static final double LONGITUDE = 100.5298;
+
+    // Offsets in meters from the reference point.
+    private static double north(double meters) {
+        return LATITUDE + meters / GeoMath.METERS_PER_DEGREE;
+    }
+
+    private static double east(double meters) {
+        return LONGITUDE + meters / (GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE)));
+    }
+
+    @Test
+    public void squareContainsItsInsideOnly() {
+        GeofenceShape square = GeofenceShape.polygon(
+                new double[]{north(0), north(0), north(1000), north(1000)},
+                new double[]{east(0), east(1000), east(1000), east(0)}, 0);
+
+        assertTrue(square.contains(north(500), east(500)));
+        assertTrue(square.contains(north(5), east(995)));
+        assertFalse(square.contains(north(500), east(1010)));
+        assertFalse(square.contains(north(-10), east(500)));
+        assertFalse(square.contains(north(2000), east(500)));
+    }
+
+    @Test
+    public void concavePolygonExcludesItsNotch() {
+        // A U opening to the north: the notch between the arms is outside.
+        GeofenceShape u = GeofenceShape.polygon(
+                new double[]{north(0), north(0), north(1000), north(1000), north(300), north(300), north(1000), north(1000)},
+                new double[]{east(0), east(900), east(900), east(600), east(600), east(300), east(300), east(0)}, 0);
+
+        assertTrue(u.contains(north(150), east(450)));
+        assertTrue(u.contains(north(800), east(150)));
+        assertTrue(u.contains(north(800), east(750)));
+        assertFalse(u.contains(north(800), east(450)));
+    }
+
+    @Test
+    public void manySidedPolygonMatchesTheCircleItApproximates() {
+        int n = 360;
+        double[] latitudes = new double[n];
+        double[] longitudes = new double[n];
+        for (int i = 0; i < n; i++) {
+            double angle = 2 * Math.PI * i / n;
+            latitudes[i] = north(1000 * Math.sin(angle));
+            longitudes[i] = east(1000 * Math.cos(angle));
+        }
+        GeofenceShape circle = GeofenceShape.polygon(latitudes, longitudes, 0);
+
+        for (int i = 0; i < 36; i++) {
+            double angle = 2 * Math.PI * i / 36 + 0.01;
+            assertTrue(circle.contains(north(980 * Math.sin(angle)), east(980 * Math.cos(angle))));
+            assertFalse(circle.contains(north(1020 * Math.sin(angle)), east(1020 * Math.cos(angle))));
+        }
+    }
+
+    @Test
+    public void corridorContainsPointsWithinItsWidthOfThePath() {
+        // East for 1 km, then north for 1 km, 50 meters either side.
+        GeofenceShape corridor = GeofenceShape.corridor(
+                new double[]{north(0), north(0), north(1000)},
+                new double[]{east(0), east(1000), east(1000)}, 50, 0);
+
+        assertTrue(corridor.contains(north(45), east(500)));
+        assertFalse(corridor.contains(north(55), east(500)));
+        assertTrue(corridor.contains(north(-45), east(500)));
+        assertFalse(corridor.contains(north(-55), east(500)));
+        // Around the ends and the corner the distance is to the nearest vertex.
+        assertTrue(corridor.contains(north(0), east(-45)));
+        assertFalse(corridor.contains(north(0), east(-55)));
+        assertTrue(corridor.contains(north(-30), east(1030)));
+        assertFalse(corridor.contains(north(-40), east(1040)));
+        assertTrue(corridor.contains(north(1045), east(1000)));
+        assertFalse(corridor.contains(north(1055), east(1000)));
+        // Inside the bend but farther than the width from both legs.
+        assertFalse(corridor.contains(north(500), east(500)));
+    }
+
+    @Test
+    public void coverContainsEveryPointOfTheShape() {
+        GeofenceShape square = GeofenceShape.polygon(
+                new double[]{north(0), north(0), north(3000), north(3000)},
+                new double[]{east(0), east(3000), east(3000), east(0)}, 500);
+        double[] circles = square.cover();
+        assertTrue(circles.length / 3 <= GeofenceShape.MAX_PARTS);
+
+        for (int y = 0; y <= 3000; y += 250) {
+            for (int x = 0; x <= 3000; x += 250) {
+                double latitude = north(y), longitude = east(x);
+                boolean covered = false;
+                for (int i = 0; i < circles.length && !covered; i += 3) {
+                    covered = GeoMath.distanceMeters(latitude, longitude, circles[i], circles[i + 1])
+                            <= circles[i + 2] + 1;
+                }
+                assertTrue("Not covered: " + x + ", " + y, covered);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void polygonNeedsThreeVertices() {
+        GeofenceShape.polygon(new double[]{north(0), north(10)}, new double[]{east(0), east(10)}, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void corridorNeedsAPositiveWidth() {
+        GeofenceShape.corridor(new double[]{north(0), north(10)}, new double[]{east(0), east(10)}, 0, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void verticesNeedBothCoordinates() {
+        GeofenceShape.polygon(new double[]{north(0), north(10), north(20)}, new double[]{east(0), east(10)}, 0);
+    }
+}
@@ -0,0 +1,51 @@
+package com.shobshop.react.geofence;
+
+import android.location.Location;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GeofenceSimulatorTest {
+    private static final double LATITUDE = 13.7446;
+    private static final double LONGITUDE = 100.5298;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void replayDeliversThroughThePipelineWithoutTouchingTheCatalog() throws IOException {
+        GeofenceCatalog catalog = new GeofenceCatalog(GeofenceCatalog.MAX_REGISTERED_GEOFENCES);
+        catalog.putAll(Arrays.asList(
+                new GeofenceRecord("A", LATITUDE, LONGITUDE, 100),
+                new GeofenceRecord("B", LATITUDE, LONGITUDE + 0.01, 100)));
+
+        // Start well west of A, walk through it and stop between the two.
+        List<Location> trace = new ArrayList<>();
+        for (int i = 0; i <= 10; i++) {
+            trace.add(GeofenceSimulator.createLocation(LATITUDE, LONGITUDE - 0.005 + i * 0.001, i * 1000L));
+        }
+        File debounceFile = new File(mFolder.getRoot(), "debounce");
+        GeofenceSimulator.Result result = new GeofenceSimulator(catalog.copy(), new TransitionDebouncer(debounceFile))
+                .replay(trace, 0);
+
+        assertEquals(11, result.fixes);
+        assertEquals(2, result.delivered.size());
+        assertEquals("A", result.delivered.get(0).identifier);
+        assertEquals(GeofenceTransition.ENTER, result.delivered.get(0).transition);
+        assertEquals(GeofenceTransition.EXIT, result.delivered.get(1).transition);
+        // The replay planned and resolved in the copy only.
+        assertEquals(0, catalog.registeredCount());
+        assertTrue(catalog.getState().inside.isEmpty());
+        assertEquals(2, catalog.size());
+    }
+}
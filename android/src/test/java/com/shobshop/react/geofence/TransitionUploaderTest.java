@@ -0,0 +1,242 @@
+package com.shobshop.react.geofence;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Posts the outbox to a stub endpoint on localhost that answers with scripted statuses.
+ */
+public class TransitionUploaderTest {
+    private static final Pattern IDENTIFIER = Pattern.compile("\"identifier\":\"([^\"]*)\"");
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private HttpServer mServer;
+    private String mUrl;
+    // Statuses to answer with, in order; 200 once they run out.
+    private final LinkedList<Integer> mStatuses = new LinkedList<>();
+    // Identifiers in each request received, and the header sent with the last one.
+    private final List<List<String>> mRequests = Collections.synchronizedList(new ArrayList<List<String>>());
+    private volatile String mTokenHeader;
+
+    @Before
+    public void startServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/transitions", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String body = read(exchange.getRequestBody());
+                ArrayList<String> identifiers = new ArrayList<>();
+                Matcher matcher = IDENTIFIER.matcher(body);
+                while (matcher.find()) identifiers.add(matcher.group(1));
+                int status;
+                synchronized (TransitionUploaderTest.this) {
+                    mRequests.add(identifiers);
+                    status = mStatuses.isEmpty() ? 200 : mStatuses.removeFirst();
+                }
+                mTokenHeader = exchange.getRequestHeaders().getFirst("X-Token");
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+            }
+        });
+        mServer.start();
+        mUrl = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/transitions";
+    }
+
+    @After
+    public void stopServer() {
+        mServer.stop(0);
+    }
+
+    private TransitionOutbox outbox(int count) {
+        TransitionOutbox outbox = new TransitionOutbox(mFolder.getRoot());
+        ArrayList<GeofenceTransition> transitions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            transitions.add(new GeofenceTransition("T" + i, GeofenceTransition.ENTER, 1000 + i));
+        }
+        outbox.append(transitions);
+        return outbox;
+    }
+
+    private TransitionUploader uploader() {
+        return new TransitionUploader(mUrl, Collections.singletonMap("X-Token", "secret"));
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) >= 0) out.write(buffer, 0, read);
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void postsTheOutboxInBatches() {
+        TransitionOutbox outbox = outbox(7);
+
+        TransitionUploader.Result result = uploader().flush(outbox, 3);
+
+        assertEquals(7, result.sent);
+        assertFalse(result.failed);
+        assertEquals(0, outbox.size());
+        assertEquals(3, mRequests.size());
+        assertEquals(ids("T0", "T1", "T2"), mRequests.get(0));
+        assertEquals(ids("T3", "T4", "T5"), mRequests.get(1));
+        assertEquals(ids("T6"), mRequests.get(2));
+        assertEquals("secret", mTokenHeader);
+    }
+
+    @Test
+    public void serverErrorKeepsTheBatchAndBacksOff() {
+        TransitionOutbox outbox = outbox(2);
+        mStatuses.add(503);
+        mStatuses.add(500);
+
+        long now = System.currentTimeMillis();
+        TransitionUploader.Result result = uploader().flush(outbox, 10);
+        assertTrue(result.failed);
+        assertEquals(0, result.sent);
+        assertEquals(2, outbox.size());
+        long firstDelay = outbox.getRetryAt() - now;
+        assertTrue(firstDelay >= TransitionOutbox.MIN_RETRY_DELAY_MS);
+        assertTrue(firstDelay <= TransitionOutbox.MIN_RETRY_DELAY_MS * 5 / 4 + 1000);
+
+        now = System.currentTimeMillis();
+        assertTrue(uploader().flush(outbox, 10).failed);
+        assertTrue(outbox.getRetryAt() - now >= 2 * TransitionOutbox.MIN_RETRY_DELAY_MS);
+
+        result = uploader().flush(outbox, 10);
+        assertEquals(2, result.sent);
+        assertEquals(0, outbox.getRetryAt());
+        assertEquals(3, mRequests.size());
+        assertEquals(mRequests.get(0), mRequests.get(2));
+    }
+
+    @Test
+    public void clientErrorDropsTheBatchAndGoesOn() {
+        TransitionOutbox outbox = outbox(4);
+        mStatuses.add(400);
+
+        TransitionUploader.Result result = uploader().flush(outbox, 2);
+
+        assertEquals(2, result.rejected);
+        assertEquals(2, result.sent);
+        assertFalse(result.failed);
+        assertEquals(0, outbox.size());
+        assertEquals(0, outbox.getRetryAt());
+    }
+
+    @Test
+    public void timeoutAndRateLimitAreRetried() {
+        TransitionOutbox outbox = outbox(1);
+        mStatuses.add(429);
+        assertTrue(uploader().flush(outbox, 10).failed);
+        mStatuses.add(408);
+        assertTrue(uploader().flush(outbox, 10).failed);
+
+        assertEquals(1, outbox.size());
+        assertEquals(0, uploader().flush(outbox, 10).rejected);
+        assertEquals(0, outbox.size());
+    }
+
+    @Test
+    public void partialFailureKeepsOnlyTheUnsentBatches() {
+        TransitionOutbox outbox = outbox(5);
+        mStatuses.add(200);
+        mStatuses.add(502);
+
+        TransitionUploader.Result result = uploader().flush(outbox, 2);
+
+        assertEquals(2, result.sent);
+        assertTrue(result.failed);
+        assertEquals(3, outbox.size());
+        // The failed batch is the next one read, and the rest follow it.
+        assertEquals(ids("T2", "T3"), identifiers(outbox.peek(2)));
+        assertEquals(ids("T2", "T3", "T4"), identifiers(outbox.peek(10)));
+    }
+
+    @Test
+    public void retainedBatchSurvivesARestart() {
+        TransitionOutbox outbox = outbox(3);
+        mStatuses.add(500);
+        assertTrue(uploader().flush(outbox, 2).failed);
+        long retryAt = outbox.getRetryAt();
+
+        TransitionOutbox restarted = new TransitionOutbox(mFolder.getRoot());
+        assertEquals(3, restarted.size());
+        assertEquals(retryAt, restarted.getRetryAt());
+
+        TransitionUploader.Result result = uploader().flush(restarted, 2);
+        assertEquals(3, result.sent);
+        assertEquals(mRequests.get(0), mRequests.get(1));
+        assertEquals(ids("T2"), mRequests.get(2));
+        assertEquals(0, new TransitionOutbox(mFolder.getRoot()).size());
+    }
+
+    @Test
+    public void unreachableEndpointIsRetried() {
+        TransitionOutbox outbox = outbox(1);
+        mServer.stop(0);
+
+        TransitionUploader.Result result = uploader().flush(outbox, 10);
+
+        assertTrue(result.failed);
+        assertEquals(1, outbox.size());
+        assertTrue(outbox.getRetryAt() > 0);
+    }
+
+    @Test
+    public void batchReadBeforeAClearIsNotAcknowledged() {
+        TransitionOutbox outbox = outbox(3);
+        TransitionOutbox.Batch batch = outbox.peek(2);
+        // The endpoint is switched off while the batch is being posted, and a new one set.
+        outbox.clear();
+        ArrayList<GeofenceTransition> transitions = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            transitions.add(new GeofenceTransition("N" + i, GeofenceTransition.EXIT, 2000 + i));
+        }
+        outbox.append(transitions);
+
+        outbox.acknowledge(batch);
+        outbox.recordFailure(batch, System.currentTimeMillis());
+
+        assertEquals(4, outbox.size());
+        assertEquals(0, outbox.getRetryAt());
+        assertEquals(ids("N0", "N1", "N2", "N3"), identifiers(outbox.peek(10)));
+    }
+
+    private static List<String> ids(String... identifiers) {
+        ArrayList<String> list = new ArrayList<>();
+        Collections.addAll(list, identifiers);
+        return list;
+    }
+
+    private static List<String> identifiers(TransitionOutbox.Batch batch) {
+        ArrayList<String> identifiers = new ArrayList<>();
+        for (GeofenceTransition transition : batch.transitions) identifiers.add(transition.identifier);
+        return identifiers;
+    }
+}
@@ -4,10 +4,52 @@ import { NativeModules, NativeEventEmitter, Platform } from 'react-native';
 const { RNGeofence } = NativeModules;
 const EventEmitter = new NativeEventEmitter(RNGeofence || {});
 
+// Android: Enter/Exit/Dwell events, and each entry of Transitions and transition arrays, carry
+// { identifier, event, time, latitude, longitude, accuracy, speed, locationTime, distance }. time is when the transition was
+// handled natively, locationTime the time of the triggering fix and distance the meters from it to the fence centre.
+// Location fields are missing when Play Services did not report a triggering location.
 export const GeofenceEvent = {
     Enter: RNGeofence.ENTER_GEOFENCE,
     Exit: RNGeofence.EXIT_GEOFENCE,
+    Dwell: RNGeofence.DWELL_GEOFENCE,  // is null in iOS
     DeviceBootCompleted: RNGeofence.DEVICE_BOOT_COMPLETED,  // is null in iOS
+    Transitions: RNGeofence.TRANSITIONS,  // is null in iOS
+    RegistryChanged: RNGeofence.REGISTRY_CHANGED,  // is null in iOS
+    GeofencesEvicted: RNGeofence.GEOFENCES_EVICTED,  // is null in iOS
+}
+
+// Android: JS copy of the native registry, so that render code can query it synchronously without a bridge round
+// trip. It starts from getRegistryState ({ version, identifiers, inside }) and is kept current by RegistryChanged
+// events ({ version, reset?, added?, removed?, entered?, exited? }, only what changed). Events that arrive before the
+// state are held, and those the state already includes are skipped.
+const registry = { identifiers: new Set(), inside: new Set(), version: -1, held: [] };
+const applyRegistryChange = (change) => {
+    if (change.version <= registry.version) return;
+    if (change.reset) {
+        registry.identifiers.clear();
+        registry.inside.clear();
+    }
+    (change.removed || []).forEach((identifier) => registry.identifiers.delete(identifier));
+    (change.added || []).forEach((identifier) => registry.identifiers.add(identifier));
+    (change.exited || []).forEach((identifier) => registry.inside.delete(identifier));
+    (change.entered || []).forEach((identifier) => registry.inside.add(identifier));
+    registry.version = change.version;
+};
+const applyRegistryState = (state) => {
+    registry.identifiers = new Set(state.identifiers);
+    registry.inside = new Set(state.inside);
+    registry.version = state.version;
+    registry.held.forEach(applyRegistryChange);
+    registry.held = [];
+};
+if (Platform.OS === 'android' && RNGeofence) {
+    EventEmitter.addListener(RNGeofence.REGISTRY_CHANGED, (change) => {
+        if (registry.version < 0) {
+            registry.held.push(change);
+        } else {
+            applyRegistryChange(change);
+        }
+    });
 }
 
 const Geofence = {};
@@ -28,8 +70,52 @@ const GeofenceConfigSchema = {
         "radius": { 
             "type": "integer"
         },
+        "loiteringDelay": {
+            "type": "integer",
+            "description": "Android only. Emit Dwell instead of Enter once the device has stayed inside this many milliseconds"
+        },
+        "debounce": {
+            "type": "integer",
+            "description": "Android only. Hold transitions this many milliseconds and drop those reversed within that time"
+        },
+        "polygon": {
+            "type": "array",
+            "items": { "type": "object", "properties": { "latitude": { "type": "number" }, "longitude": { "type": "number" } } },
+            "description": "Android only. Vertices of a polygon geofence, used instead of latitude/longitude/radius"
+        },
+        "corridor": {
+            "type": "array",
+            "items": { "type": "object", "properties": { "latitude": { "type": "number" }, "longitude": { "type": "number" } } },
+            "description": "Android only. Path of a corridor geofence; radius is the distance allowed on either side"
+        },
+        "group": {
+            "type": "string",
+            "description": "Android only. Tag for removing, listing or replacing a set of geofences in one call"
+        },
+        "coverRadius": {
+            "type": "integer",
+            "description": "Android only. Preferred radius in meters of the circles registered to cover a polygon or corridor"
+        },
+        "priority": {
+            "type": "integer",
+            "description": "Android only. Geofences with a lower priority are evicted first once setMaxGeofences is exceeded (default 0)"
+        },
+        "expiresAt": {
+            "type": "number",
+            "description": "Android only. Time in epoch milliseconds after which the geofence is removed"
+        },
+        "expirationDuration": {
+            "type": "integer",
+            "description": "Android only. Milliseconds from now after which the geofence is removed, when expiresAt is not given"
+        },
     },
-    "required": ["identifier", "latitude", "longitude", "radius"]
+    "required": ["identifier"],
+    // A circle, or on Android a polygon or a corridor, whose radius is its half-width
+    "oneOf": [
+        { "required": ["latitude", "longitude", "radius"] },
+        { "required": ["polygon"] },
+        { "required": ["corridor", "radius"] }
+    ]
 };
 Geofence.hasPlayServices = (params = { autoResolve: true }) => {
     if(Platform.OS === 'ios') return Promise.resolve(true);
@@ -41,14 +127,77 @@ Geofence.locationServicesEnabled = (params = { autoResolve: true }) => {
 Geofence.openAndroidLocationSettings = () => Platform.OS == 'android' ? RNGeofence.openAndroidLocationSettings() : false;
 Geofence.initialize = () => RNGeofence.initialize();
 Geofence.addGeofence = (config) => RNGeofence.addGeofence(config);  // Refer to GeofenceConfigSchema
-Geofence.addGeofences = (configs) => RNGeofence.addGeofences(configs);  // Refer to GeofenceConfigSchema
-Geofence.removeGeofence = (identifier) => RNGeofence.removeGeofence(identifier);
-Geofence.removeAllGeofences = () => RNGeofence.removeAllGeofences();
+// options.clusterRadius (Android): group nearby geofences into parent geofences of at most this radius in meters
+Geofence.addGeofences = (configs, options = {}) => Platform.OS === 'android'
+    ? RNGeofence.addGeofences(configs, options)
+    : RNGeofence.addGeofences(configs);  // Refer to GeofenceConfigSchema
+// Android: deliver transitions as one Transitions event per window ({ enabled, windowMs }) instead of one Enter/Exit event each
+Geofence.setEventBatching = (options) => Platform.OS === 'android' ? RNGeofence.setEventBatching(options) : Promise.resolve(false);
+// Android: whether a transition should start the JS runtime when the app is not running (default true)
+Geofence.setWakeOnTransition = (enabled) => Platform.OS === 'android' ? RNGeofence.setWakeOnTransition(enabled) : Promise.resolve(false);
+// Android: register geofences with a notification responsiveness that follows the speed at the last triggering location.
+// options: { enabled, levels: [{ minSpeed (m/s), responsivenessMs }] (default 0: 0, 3: 30000, 15: 120000),
+// minIntervalMs (default 300000, at most one re-registration per interval) }
+Geofence.setAdaptiveResponsiveness = (options) => Platform.OS === 'android' ? RNGeofence.setAdaptiveResponsiveness(options) : Promise.resolve(false);
+// Android: keep at most maxGeofences geofences (0 for no limit), evicting by lowest priority, then least recently
+// triggered, then soonest to expire. Evicted and expired geofences are reported by GeofencesEvicted ({ evicted, expired })
+Geofence.setMaxGeofences = (maxGeofences) => Platform.OS === 'android' ? RNGeofence.setMaxGeofences(maxGeofences) : Promise.resolve(false);
+// Android: resolve with the transitions queued natively while JS was not running, and clear the queue
+Geofence.drainPendingTransitions = () => Platform.OS === 'android' ? RNGeofence.drainPendingTransitions() : Promise.resolve([]);
+// Android: make the registered geofences match configs, touching only what changed. Resolves with { added, removed, changed, unchanged }
+const EMPTY_SYNC_RESULT = { added: 0, removed: 0, changed: 0, unchanged: 0 };
+Geofence.syncGeofences = (configs, options = {}) => Platform.OS === 'android'
+    ? RNGeofence.syncGeofences(configs, options)
+    : Promise.resolve(EMPTY_SYNC_RESULT);  // Refer to GeofenceConfigSchema
+// Android: page through the native log of delivered transitions, oldest first. options: { since (ms), limit (default 100),
+// cursor (from the previous page) }. Resolves with { transitions: [{ identifier, event, time, latitude, longitude }], cursor }
+Geofence.getTransitionHistory = (options = {}) => Platform.OS === 'android'
+    ? RNGeofence.getTransitionHistory(options)
+    : Promise.resolve({ transitions: [], cursor: 0 });
+// Android: post transitions natively to options.url in batches, without JS. options: { url (null to stop and discard),
+// headers, batchSize (default 50), flushIntervalMs (default 60000) }. flushOutbox sends now and resolves with the pending count
+Geofence.setOutbox = (options) => Platform.OS === 'android' ? RNGeofence.setOutbox(options) : Promise.resolve(false);
+Geofence.flushOutbox = () => Platform.OS === 'android' ? RNGeofence.flushOutbox() : Promise.resolve(0);
+// Android: counters and latency histograms ({ count, mean, p50, p90, p99, max } in ms) of the native transition pipeline
+Geofence.getMetrics = () => Platform.OS === 'android' ? RNGeofence.getMetrics() : Promise.resolve(null);
+Geofence.resetMetrics = () => Platform.OS === 'android' ? RNGeofence.resetMetrics() : Promise.resolve(false);
+// Android, for load testing: replay a location trace against a copy of the registered geofences through the native
+// pipeline, with a simulator instead of Play Services. Nothing is registered, stored, posted or sent to JS, but the
+// metrics count it. options: { trace: [{ latitude, longitude, time, accuracy?, speed? }] } or { path } to a
+// "time,latitude,longitude" file, and speed (0 = as fast as possible). Resolves with
+// { fixes, events, transitions, delivered, rotations, traceDurationMs, durationMs }
+Geofence.simulateTrace = (options) => Platform.OS === 'android' ? RNGeofence.simulateTrace(options) : Promise.resolve(null);
+// Android: bulk operations on the geofences tagged with a group, each applied as one batched Play Services call.
+// replaceGroup makes the group hold exactly configs (tagged with the group) and resolves like syncGeofences
+Geofence.removeGroup = (group) => Platform.OS === 'android' ? RNGeofence.removeGroup(group) : Promise.resolve(false);
+Geofence.listGroup = (group) => Platform.OS === 'android' ? RNGeofence.listGroup(group) : Promise.resolve([]);
+Geofence.replaceGroup = (group, configs, options = {}) => Platform.OS === 'android'
+    ? RNGeofence.replaceGroup(group, configs, options)
+    : Promise.resolve(EMPTY_SYNC_RESULT);
+// Android: resolves once the JS copy of the registry holds the native state
+Geofence.registryReady = Platform.OS === 'android' && RNGeofence
+    ? RNGeofence.getRegistryState().then(applyRegistryState)
+    : Promise.resolve();
+// Android, synchronous: whether a geofence with this identifier was added and not removed, and the identifiers
+// of the geofences the device is in (by their last transition, before any debounce)
+Geofence.isGeofenceRegistered = (identifier) => registry.identifiers.has(identifier);
+Geofence.getInsideGeofences = () => Array.from(registry.inside);
+Geofence.removeGeofence = (identifier) => RNGeofence.removeGeofence(identifier);  // Promise on Android
+Geofence.removeAllGeofences = () => RNGeofence.removeAllGeofences();  // Promise on Android
+// Android: transitions queued natively while JS was not running (setWakeOnTransition(false), or a batch that was
+// waiting for React) are emitted once the first transition listener is added. Add all of them in the same tick.
+const TRANSITION_EVENTS = [GeofenceEvent.Enter, GeofenceEvent.Exit, GeofenceEvent.Dwell, GeofenceEvent.Transitions];
+let pendingTransitionsRequested = false;
 Geofence.on = (event, callback) => {
     if (!Object.values(GeofenceEvent).includes(event)) {
         throw new Error(`Invalid geofence event subscription, use import {GeofenceEvent} from 'RNGeofence' to avoid typo`);
     };
-    if(event) return EventEmitter.addListener(event, callback);
-    else return null;
+    if (!event) return null;
+    const subscription = EventEmitter.addListener(event, callback);
+    if (Platform.OS === 'android' && !pendingTransitionsRequested && TRANSITION_EVENTS.includes(event)) {
+        pendingTransitionsRequested = true;
+        RNGeofence.deliverPendingTransitions();
+    }
+    return subscription;
 };
 export default Geofence;
\ No newline at end of file